@@ -1,20 +1,32 @@
 package ca.concordia;
 
+import ca.concordia.client.BinaryClient;
+
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.util.Base64;
 import java.util.Scanner;
 
 // Press Shift twice to open the Search Everywhere dialog and type `show whitespaces`,
 // then press Enter. You can now see whitespace characters in your code.
 public class Main {
+
+    private static final int MAX_BATCH = 10_000; // The server's limit on the commands in one BATCH
+
     public static void main(String[] args) {
         //Socket CLient
         System.out.println("Hello and welcome!");
         Scanner scanner = new Scanner(System.in);
 
+        if (args.length > 0 && args[0].equals("--binary")) {
+            runBinary(scanner);
+            return;
+        }
+
         try{
             Socket clientSocket = new Socket("localhost", 12345);
             System.out.println("Connected to the server at localhost:12345");
@@ -26,11 +38,46 @@ public class Main {
                     PrintWriter writer = new PrintWriter(clientSocket.getOutputStream(), true)
             ) {
                 while (userInput != null && !userInput.isEmpty() && !userInput.equalsIgnoreCase("exit") && !userInput.equalsIgnoreCase("quit")) {
+                    String[] tokens = userInput.trim().split("\\s+");
+                    String command = tokens[0].toUpperCase();
+                    int batchCount = command.equals("BATCH") ? batchCount(tokens) : 0;
+                    if (command.equals("BATCH") && batchCount == 0) {
+                        // The server would answer a bad header at once and take the lines that follow for commands
+                        System.out.println("Usage: BATCH <count>, with a count from 1 to " + MAX_BATCH + ".");
+                        userInput = scanner.nextLine();
+                        continue;
+                    }
                     writer.println(userInput);
                     System.out.println("Message sent to the server: " + userInput);
+                    if (command.equals("UPLOAD")) {
+                        // Base64 chunks, one per line, up to and including the empty line that ends them
+                        System.out.println("Enter the Base64 chunks, then an empty line:");
+                        String chunk;
+                        do {
+                            chunk = scanner.nextLine();
+                            writer.println(chunk.trim());
+                        } while (!chunk.trim().isEmpty());
+                    } else if (batchCount > 0) {
+                        System.out.println("Enter the " + batchCount + " commands of the batch:");
+                        for (int i = 0; i < batchCount; i++) {
+                            writer.println(scanner.nextLine());
+                        }
+                    }
                     //get response
                     String response = reader.readLine();
                     System.out.println("Response from server: " + response);
+                    // A LIST or DOWNLOAD answers with lines up to an empty one, unless it failed
+                    if ((command.equals("LIST") || command.equals("DOWNLOAD")) && response != null
+                            && !response.isEmpty() && !response.startsWith("ERROR")) {
+                        for (String line = reader.readLine(); line != null && !line.isEmpty(); line = reader.readLine()) {
+                            System.out.println(line);
+                        }
+                    }
+                    // A BATCH answers each of its commands with a line
+                    for (int i = 1; i < batchCount && response != null; i++) {
+                        response = reader.readLine();
+                        System.out.println(response);
+                    }
 
                     userInput = scanner.nextLine(); // Read next line
                 }
@@ -49,4 +96,81 @@ public class Main {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    // The count of a well-formed BATCH header, or 0
+    private static int batchCount(String[] tokens) {
+        if (tokens.length != 2) {
+            return 0;
+        }
+        try {
+            int count = Integer.parseInt(tokens[1]);
+            return count >= 1 && count <= MAX_BATCH ? count : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // Same commands as typed in text mode, sent as binary frames; payloads are still typed as Base64
+    private static void runBinary(Scanner scanner) {
+        try (BinaryClient client = new BinaryClient("localhost", 12345)) {
+            System.out.println("Connected to the server at localhost:12345 (binary protocol)");
+            while (scanner.hasNextLine()) {
+                String userInput = scanner.nextLine().trim();
+                if (userInput.isEmpty() || userInput.equalsIgnoreCase("exit") || userInput.equalsIgnoreCase("quit")) {
+                    break;
+                }
+                String[] tokens = userInput.split("\\s+");
+                String name = tokens.length > 1 ? tokens[1] : "";
+                try {
+                    switch (tokens[0].toUpperCase()) {
+                        case "CREATE":
+                            System.out.println("Response from server: " + client.create(name));
+                            break;
+                        case "LIST":
+                            System.out.println("Response from server: " + client.list(name));
+                            break;
+                        case "WRITE":
+                            if (tokens.length == 4) {
+                                System.out.println("Response from server: " + client.writeAt(name,
+                                        Long.parseLong(tokens[2]), Base64.getDecoder().decode(tokens[3])));
+                            } else {
+                                System.out.println("Response from server: " + client.write(name,
+                                        Base64.getDecoder().decode(tokens[2])));
+                            }
+                            break;
+                        case "APPEND":
+                            System.out.println("Response from server: " + client.append(name,
+                                    Base64.getDecoder().decode(tokens[2])));
+                            break;
+                        case "READ":
+                            byte[] data = tokens.length == 4
+                                    ? client.readRange(name, Long.parseLong(tokens[2]), Integer.parseInt(tokens[3]))
+                                    : client.read(name);
+                            System.out.println("Response from server: " + Base64.getEncoder().encodeToString(data));
+                            break;
+                        case "DELETE":
+                            System.out.println("Response from server: " + client.delete(name));
+                            break;
+                        case "MKDIR":
+                            System.out.println("Response from server: " + client.mkdir(name));
+                            break;
+                        case "RMDIR":
+                            System.out.println("Response from server: " + client.rmdir(name));
+                            break;
+                        default:
+                            System.out.println("Unknown command.");
+                    }
+                } catch (IOException e) {
+                    System.out.println("Response from server: ERROR: " + e.getMessage());
+                } catch (RuntimeException e) {
+                    System.out.println("Invalid arguments: " + e.getMessage());
+                }
+            }
+            System.out.println("Connection closed.");
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            scanner.close();
+        }
+    }
+}
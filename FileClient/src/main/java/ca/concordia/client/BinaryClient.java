@@ -0,0 +1,351 @@
+package ca.concordia.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Client for the server's binary protocol: length-prefixed frames carrying raw file bytes, so
+ * nothing is Base64-encoded and no line has to be scanned for its end. The constants mirror
+ * ca.concordia.server.BinaryProtocol. Requests fail with an IOException holding the server's
+ * message when it answers with an error.
+ *
+ * pipeline() queues several requests and sends them together: as separate frames, answered in
+ * order and read while the rest are still being sent, or as a single BATCH that the server runs under one lock and one journal flush.
+ */
+public class BinaryClient implements AutoCloseable {
+
+    static final int MAGIC = 0xFB;
+    static final int VERSION = 1;
+
+    static final byte CREATE = 1;
+    static final byte LIST = 2;
+    static final byte WRITE = 3;
+    static final byte APPEND = 4;
+    static final byte READ = 5;
+    static final byte DELETE = 6;
+    static final byte READ_RANGE = 7;
+    static final byte WRITE_AT = 8;
+    static final byte QUIT = 9;
+    static final byte BATCH = 10;
+    static final byte STATS = 11;
+    static final byte MKDIR = 12;
+    static final byte RMDIR = 13;
+
+    private static final byte OK = 0;
+    private static final byte[] NO_BYTES = new byte[0];
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private boolean broken; // A transfer failed part way, so requests and responses may no longer line up
+
+    public BinaryClient(String host, int port) throws IOException {
+        this(host, port, 0, 0);
+    }
+
+    /**
+     * Timeouts are in milliseconds, 0 for none. A request whose response takes longer than
+     * readTimeoutMillis fails with a SocketTimeoutException, after which the client is unusable:
+     * the late response would be taken for the next request's.
+     */
+    public BinaryClient(String host, int port, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            socket.setSoTimeout(readTimeoutMillis);
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.write(MAGIC);
+        out.write(VERSION);
+    }
+
+    public String create(String name) throws IOException {
+        return message(call(CREATE, name, NO_BYTES, 0, 0));
+    }
+
+    public List<String> list() throws IOException {
+        return list("");
+    }
+
+    /** The names in the directory at path, "" for the top of the tree; directories end in '/'. */
+    public List<String> list(String path) throws IOException {
+        DataInputStream names = new DataInputStream(new ByteArrayInputStream(call(LIST, path, NO_BYTES, 0, 0)));
+        List<String> result = new ArrayList<>();
+        while (names.available() > 0) {
+            byte[] name = new byte[names.readUnsignedShort()];
+            names.readFully(name);
+            result.add(new String(name, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    public String write(String name, byte[] data) throws IOException {
+        return message(call(WRITE, name, data, 0, 0));
+    }
+
+    /** Overwrites the file from offset on, growing it if needed, and leaves the rest as it is. */
+    public String writeAt(String name, long offset, byte[] data) throws IOException {
+        return message(call(WRITE_AT, name, data, offset, 0));
+    }
+
+    public String append(String name, byte[] data) throws IOException {
+        return message(call(APPEND, name, data, 0, 0));
+    }
+
+    public byte[] read(String name) throws IOException {
+        return call(READ, name, NO_BYTES, 0, 0);
+    }
+
+    public byte[] readRange(String name, long offset, int length) throws IOException {
+        return call(READ_RANGE, name, NO_BYTES, offset, length);
+    }
+
+    public String delete(String name) throws IOException {
+        return message(call(DELETE, name, NO_BYTES, 0, 0));
+    }
+
+    public String mkdir(String path) throws IOException {
+        return message(call(MKDIR, path, NO_BYTES, 0, 0));
+    }
+
+    /** Removes the directory at path, which must be empty. */
+    public String rmdir(String path) throws IOException {
+        return message(call(RMDIR, path, NO_BYTES, 0, 0));
+    }
+
+    /** The server's metrics as one line of key=value pairs; see the STATS command. */
+    public String stats() throws IOException {
+        return message(call(STATS, "", NO_BYTES, 0, 0));
+    }
+
+    public Pipeline pipeline() {
+        return new Pipeline();
+    }
+
+    /** False once a request has failed in transit or timed out; error responses leave the client usable. */
+    public boolean isUsable() {
+        return !broken && !socket.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!broken) {
+                call(QUIT, "", NO_BYTES, 0, 0);
+            }
+        } catch (IOException ignored) {
+            // The connection is going away either way
+        } finally {
+            socket.close();
+        }
+    }
+
+    // Sends one request and returns the body of its response
+    private byte[] call(byte opcode, String name, byte[] payload, long offset, int length) throws IOException {
+        Reply reply;
+        try {
+            writeRequest(out, opcode, name.getBytes(StandardCharsets.UTF_8), payload, offset, length);
+            out.flush();
+            reply = readReply(in);
+        } catch (IOException e) {
+            broken = true;
+            throw e;
+        }
+        if (!reply.isOk()) {
+            throw new IOException(reply.message());
+        }
+        return reply.body();
+    }
+
+    private static void writeRequest(DataOutputStream out, byte opcode, byte[] rawName, byte[] payload,
+                                     long offset, int length) throws IOException {
+        boolean hasOffset = opcode == READ_RANGE || opcode == WRITE_AT;
+        int frameLength = 1 + 2 + rawName.length + (hasOffset ? 8 : 0) + (opcode == READ_RANGE ? 4 : 0) + payload.length;
+        out.writeInt(frameLength);
+        out.writeByte(opcode);
+        out.writeShort(rawName.length);
+        out.write(rawName);
+        if (hasOffset) {
+            out.writeLong(offset);
+        }
+        if (opcode == READ_RANGE) {
+            out.writeInt(length);
+        }
+        out.write(payload);
+    }
+
+    private static Reply readReply(DataInputStream in) throws IOException {
+        byte[] body = new byte[in.readInt() - 1];
+        byte status = in.readByte();
+        in.readFully(body);
+        return new Reply(status == OK, body);
+    }
+
+    private static String message(byte[] body) {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /** The outcome of one pipelined request. A failed request does not stop the ones after it. */
+    public static final class Reply {
+
+        private final boolean ok;
+        private final byte[] body;
+
+        Reply(boolean ok, byte[] body) {
+            this.ok = ok;
+            this.body = body;
+        }
+
+        public boolean isOk() {
+            return ok;
+        }
+
+        /** The bytes of a READ, or the server's message as UTF-8. */
+        public byte[] body() {
+            return body;
+        }
+
+        public String message() {
+            return BinaryClient.message(body);
+        }
+    }
+
+    /** Requests queued on this client until send() or sendAsBatch(); not reusable afterwards. */
+    public final class Pipeline {
+
+        private final List<byte[]> names = new ArrayList<>();
+        private final List<Byte> opcodes = new ArrayList<>();
+        private final List<byte[]> payloads = new ArrayList<>();
+
+        private Pipeline() {
+        }
+
+        public Pipeline create(String name) {
+            return add(CREATE, name, NO_BYTES);
+        }
+
+        public Pipeline write(String name, byte[] data) {
+            return add(WRITE, name, data);
+        }
+
+        public Pipeline append(String name, byte[] data) {
+            return add(APPEND, name, data);
+        }
+
+        public Pipeline delete(String name) {
+            return add(DELETE, name, NO_BYTES);
+        }
+
+        /** Reads can be pipelined but not batched. */
+        public Pipeline read(String name) {
+            return add(READ, name, NO_BYTES);
+        }
+
+        public int size() {
+            return opcodes.size();
+        }
+
+        /**
+         * Sends every request and returns their replies in the same order. The replies are read
+         * on a second thread while the requests are still going out: a server whose replies are
+         * not being read stops reading requests, so writing a long pipeline before reading any
+         * reply could leave both ends blocked on a full socket.
+         */
+        public List<Reply> send() throws IOException {
+            FutureTask<List<Reply>> replies = new FutureTask<>(() -> {
+                List<Reply> read = new ArrayList<>(size());
+                try {
+                    for (int i = 0; i < size(); i++) {
+                        read.add(readReply(in));
+                    }
+                } catch (IOException e) {
+                    socket.close(); // Or the writer could wait forever for the server to read
+                    throw e;
+                }
+                return read;
+            });
+            Thread reader = new Thread(replies, "pipeline-replies");
+            reader.setDaemon(true);
+            reader.start();
+            try {
+                for (int i = 0; i < size(); i++) {
+                    writeRequest(out, opcodes.get(i), names.get(i), payloads.get(i), 0, 0);
+                }
+                out.flush();
+                return replies.get();
+            } catch (IOException e) {
+                broken = true;
+                socket.close(); // Ends the reader too, which would wait for replies that will not come
+                throw e;
+            } catch (ExecutionException e) {
+                broken = true;
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                broken = true;
+                socket.close();
+                throw new InterruptedIOException("Interrupted while waiting for pipelined replies.");
+            }
+        }
+
+        /**
+         * Sends the requests as one BATCH, which the server runs together: the ones that succeed
+         * are made durable by a single journal flush.
+         */
+        public List<Reply> sendAsBatch() throws IOException {
+            int frameLength = 1 + 2 + 4;
+            for (int i = 0; i < size(); i++) {
+                frameLength += 4 + 1 + 2 + names.get(i).length + payloads.get(i).length;
+            }
+            Reply batch;
+            try {
+                out.writeInt(frameLength);
+                out.writeByte(BATCH);
+                out.writeShort(0);
+                out.writeInt(size());
+                for (int i = 0; i < size(); i++) {
+                    writeRequest(out, opcodes.get(i), names.get(i), payloads.get(i), 0, 0);
+                }
+                out.flush();
+                batch = readReply(in);
+            } catch (IOException e) {
+                broken = true;
+                throw e;
+            }
+            if (!batch.isOk()) {
+                throw new IOException(batch.message());
+            }
+            DataInputStream body = new DataInputStream(new ByteArrayInputStream(batch.body()));
+            List<Reply> replies = new ArrayList<>(size());
+            for (int i = 0; i < size(); i++) {
+                replies.add(readReply(body));
+            }
+            return replies;
+        }
+
+        private Pipeline add(byte opcode, String name, byte[] payload) {
+            opcodes.add(opcode);
+            names.add(name.getBytes(StandardCharsets.UTF_8));
+            payloads.add(payload);
+            return this;
+        }
+    }
+}
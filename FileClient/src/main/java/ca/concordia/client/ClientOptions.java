@@ -0,0 +1,77 @@
+package ca.concordia.client;
+
+/**
+ * Settings for a PooledClient. Timeouts are in milliseconds; 0 means wait forever.
+ */
+public class ClientOptions {
+
+    private String host = "localhost";
+    private int port = 12345;
+    private int maxConnections = 8;
+    private int connectTimeoutMillis = 5_000;
+    private int requestTimeoutMillis = 30_000;
+    private long idleTimeoutMillis = 60_000;
+
+    public String getHost() {
+        return host;
+    }
+
+    public ClientOptions host(String host) {
+        this.host = host;
+        return this;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public ClientOptions port(int port) {
+        this.port = port;
+        return this;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /** Connections open at once; requests beyond this wait for one to be returned. */
+    public ClientOptions maxConnections(int maxConnections) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("A pool needs at least one connection.");
+        }
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public ClientOptions connectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        return this;
+    }
+
+    public int getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    /**
+     * How long a request waits for a free connection, and then for each read of its response.
+     * A connection whose response timed out is closed rather than returned to the pool.
+     */
+    public ClientOptions requestTimeoutMillis(int requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        return this;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    /** Pooled connections unused for longer than this are closed instead of being reused. */
+    public ClientOptions idleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+}
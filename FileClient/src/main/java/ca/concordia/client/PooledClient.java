@@ -0,0 +1,250 @@
+package ca.concordia.client;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * A thread-safe client that keeps binary-protocol connections open between requests and shares
+ * them among its callers, so an operation costs one round trip instead of a TCP handshake as well.
+ * Each request borrows a connection for its duration, most recently used first, and opens a new
+ * one only when none is idle and fewer than maxConnections are open.
+ *
+ * The async methods run on a pool of maxConnections threads and complete exceptionally with the
+ * IOException the blocking method would have thrown. Failed requests are not retried: an APPEND
+ * whose response was lost may have been applied.
+ */
+public class PooledClient implements AutoCloseable {
+
+    /** Work done on one borrowed connection. */
+    public interface Request<T> {
+        T run(BinaryClient client) throws IOException;
+    }
+
+    private final ClientOptions options;
+    private final Semaphore permits; // One per connection that may be open
+    private final Deque<Idle> idle = new ArrayDeque<>(); // Most recently returned first; guarded by itself
+    private final ExecutorService executor;
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private volatile boolean closed;
+
+    public PooledClient(ClientOptions options) {
+        this.options = options;
+        permits = new Semaphore(options.getMaxConnections(), true);
+        AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(options.getMaxConnections(), task -> {
+            Thread thread = new Thread(task, "file-client-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public String create(String name) throws IOException {
+        return execute(client -> client.create(name));
+    }
+
+    public List<String> list() throws IOException {
+        return execute(BinaryClient::list);
+    }
+
+    public List<String> list(String path) throws IOException {
+        return execute(client -> client.list(path));
+    }
+
+    public String write(String name, byte[] data) throws IOException {
+        return execute(client -> client.write(name, data));
+    }
+
+    public String append(String name, byte[] data) throws IOException {
+        return execute(client -> client.append(name, data));
+    }
+
+    public byte[] read(String name) throws IOException {
+        return execute(client -> client.read(name));
+    }
+
+    public String delete(String name) throws IOException {
+        return execute(client -> client.delete(name));
+    }
+
+    public String mkdir(String path) throws IOException {
+        return execute(client -> client.mkdir(path));
+    }
+
+    public String rmdir(String path) throws IOException {
+        return execute(client -> client.rmdir(path));
+    }
+
+    public CompletableFuture<String> createAsync(String name) {
+        return executeAsync(client -> client.create(name));
+    }
+
+    public CompletableFuture<List<String>> listAsync() {
+        return executeAsync(BinaryClient::list);
+    }
+
+    public CompletableFuture<String> writeAsync(String name, byte[] data) {
+        return executeAsync(client -> client.write(name, data));
+    }
+
+    public CompletableFuture<String> appendAsync(String name, byte[] data) {
+        return executeAsync(client -> client.append(name, data));
+    }
+
+    public CompletableFuture<byte[]> readAsync(String name) {
+        return executeAsync(client -> client.read(name));
+    }
+
+    public CompletableFuture<String> deleteAsync(String name) {
+        return executeAsync(client -> client.delete(name));
+    }
+
+    /**
+     * Sends the requests added by requests back to back on one connection and returns their
+     * replies in order; see BinaryClient.Pipeline. With asBatch they go as one BATCH instead.
+     */
+    public List<BinaryClient.Reply> pipeline(Consumer<BinaryClient.Pipeline> requests, boolean asBatch) throws IOException {
+        return execute(client -> pipeline(requests, asBatch, client));
+    }
+
+    public CompletableFuture<List<BinaryClient.Reply>> pipelineAsync(Consumer<BinaryClient.Pipeline> requests, boolean asBatch) {
+        return executeAsync(client -> pipeline(requests, asBatch, client));
+    }
+
+    /** Runs request on a pooled connection, which goes back to the pool unless it failed in transit. */
+    public <T> T execute(Request<T> request) throws IOException {
+        BinaryClient client = borrow();
+        try {
+            return request.run(client);
+        } finally {
+            giveBack(client);
+        }
+    }
+
+    public <T> CompletableFuture<T> executeAsync(Request<T> request) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return execute(request);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /** Connections opened over the pool's lifetime; with keep-alive working it stays near maxConnections. */
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    /** Closes the idle connections now and the borrowed ones as they are returned. */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+        List<BinaryClient> toClose = new ArrayList<>();
+        synchronized (idle) {
+            for (Idle connection : idle) {
+                toClose.add(connection.client);
+            }
+            idle.clear();
+        }
+        toClose.forEach(PooledClient::closeQuietly);
+    }
+
+    private static List<BinaryClient.Reply> pipeline(Consumer<BinaryClient.Pipeline> requests, boolean asBatch,
+                                                     BinaryClient client) throws IOException {
+        BinaryClient.Pipeline pipeline = client.pipeline();
+        requests.accept(pipeline);
+        return asBatch ? pipeline.sendAsBatch() : pipeline.send();
+    }
+
+    private BinaryClient borrow() throws IOException {
+        if (closed) {
+            throw new IOException("The client is closed.");
+        }
+        try {
+            int timeout = options.getRequestTimeoutMillis();
+            if (timeout == 0) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException("No connection became free within " + timeout + " ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection.", e);
+        }
+
+        try {
+            List<BinaryClient> stale = new ArrayList<>();
+            BinaryClient reused = null;
+            long now = System.nanoTime();
+            synchronized (idle) {
+                // The least recently used connections are at the back, so they age out from there
+                while (!idle.isEmpty() && now - idle.peekLast().since > TimeUnit.MILLISECONDS.toNanos(options.getIdleTimeoutMillis())) {
+                    stale.add(idle.pollLast().client);
+                }
+                if (!idle.isEmpty()) {
+                    reused = idle.pollFirst().client;
+                }
+            }
+            stale.forEach(PooledClient::closeQuietly);
+            if (reused != null) {
+                return reused;
+            }
+            BinaryClient client = new BinaryClient(options.getHost(), options.getPort(),
+                    options.getConnectTimeoutMillis(), options.getRequestTimeoutMillis());
+            connectionsOpened.incrementAndGet();
+            return client;
+        } catch (IOException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void giveBack(BinaryClient client) {
+        boolean kept = false;
+        if (client.isUsable()) {
+            synchronized (idle) {
+                // Checked under the lock, so close() cannot miss a connection returned while it runs
+                if (!closed) {
+                    idle.addFirst(new Idle(client, System.nanoTime()));
+                    kept = true;
+                }
+            }
+        }
+        if (!kept) {
+            closeQuietly(client);
+        }
+        permits.release();
+    }
+
+    private static void closeQuietly(BinaryClient client) {
+        try {
+            client.close();
+        } catch (IOException ignored) {
+            // Nothing more can be done with it
+        }
+    }
+
+    private static final class Idle {
+        final BinaryClient client;
+        final long since;
+
+        Idle(BinaryClient client, long since) {
+            this.client = client;
+            this.since = since;
+        }
+    }
+}
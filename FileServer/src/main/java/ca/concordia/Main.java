@@ -2,13 +2,24 @@ package ca.concordia;
 
 import java.io.IOException;
 
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
 import ca.concordia.server.FileServer;
+import ca.concordia.server.ServerOptions;
 
 public class Main {
     public static void main(String[] args) throws IOException {
         System.out.printf("Hello and welcome!");
 
-        FileServer server = new FileServer(12345, "filesystem.dat", 10 * 128);
+        // Volume settings can be overridden, e.g. -Dfs.blockSize=4096 -Dfs.totalSize=4294967296 -Dfs.storage=random_access
+        String image = System.getProperty("fs.image", "filesystem.dat");
+        FileSystemOptions options = FileSystemOptions.fromSystemProperties();
+        if (!options.isFormat() && !FileSystemManager.isFormatted(image)) {
+            // A brand new (or pre-superblock) image has nothing to mount yet; -Dfs.format=true wipes an existing one
+            System.out.println("Formatting new disk image " + image);
+            options.format(true);
+        }
+        FileServer server = new FileServer(12345, image, options, ServerOptions.fromSystemProperties());
         // Start the file server
         server.start();
     }
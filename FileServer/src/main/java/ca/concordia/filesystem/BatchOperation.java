@@ -0,0 +1,77 @@
+package ca.concordia.filesystem;
+
+/**
+ * One step of FileSystemManager.batch: a create, a whole-file write, a write at a position in
+ * the file, an append or a delete. A WRITE, WRITE_AT or APPEND uses data[offset..offset+length)
+ * as it is when the batch runs.
+ */
+public final class BatchOperation {
+
+    public enum Kind {
+        CREATE, WRITE, WRITE_AT, APPEND, DELETE
+    }
+
+    private final Kind kind;
+    private final String fileName;
+    private final long position; // Where in the file a WRITE_AT starts
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+
+    private BatchOperation(Kind kind, String fileName, long position, byte[] data, int offset, int length) {
+        this.kind = kind;
+        this.fileName = fileName;
+        this.position = position;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public static BatchOperation create(String fileName) {
+        return new BatchOperation(Kind.CREATE, fileName, 0, null, 0, 0);
+    }
+
+    public static BatchOperation write(String fileName, byte[] data, int offset, int length) {
+        return new BatchOperation(Kind.WRITE, fileName, 0, data, offset, length);
+    }
+
+    /** Writes the bytes at position in the file, leaving the rest of it as it is. */
+    public static BatchOperation writeAt(String fileName, long position, byte[] data, int offset, int length) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Offset cannot be negative.");
+        }
+        return new BatchOperation(Kind.WRITE_AT, fileName, position, data, offset, length);
+    }
+
+    public static BatchOperation append(String fileName, byte[] data, int offset, int length) {
+        return new BatchOperation(Kind.APPEND, fileName, 0, data, offset, length);
+    }
+
+    public static BatchOperation delete(String fileName) {
+        return new BatchOperation(Kind.DELETE, fileName, 0, null, 0, 0);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
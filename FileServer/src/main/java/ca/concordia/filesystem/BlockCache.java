@@ -0,0 +1,110 @@
+package ca.concordia.filesystem;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of data blocks, keyed by block index, with CLOCK eviction. Lookups never
+ * lock: they read a concurrent map and set the frame's reference bit. Inserts and evictions
+ * sweep the clock hand under one lock, skipping frames referenced since the last pass.
+ * Cached arrays are never modified; a write invalidates the block and the next miss reloads it.
+ */
+public class BlockCache {
+
+    private static final class Frame {
+        final int block;
+        final byte[] data;
+        volatile boolean referenced;
+
+        Frame(int block, byte[] data) {
+            this.block = block;
+            this.data = data;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Frame> frames;
+    private final Frame[] clock;
+    private final ReentrantLock clockLock = new ReentrantLock();
+    private int hand; // Guarded by clockLock
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BlockCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Cache capacity must be positive.");
+        }
+        this.frames = new ConcurrentHashMap<>(capacity * 2);
+        this.clock = new Frame[capacity];
+    }
+
+    /** The cached contents of block, or null on a miss. The array must not be modified. */
+    public byte[] get(int block) {
+        Frame frame = frames.get(block);
+        if (frame == null) {
+            misses.increment();
+            return null;
+        }
+        if (!frame.referenced) {
+            frame.referenced = true;
+        }
+        hits.increment();
+        return frame.data;
+    }
+
+    /** Caches data as the contents of block. The array is kept, not copied, and must not be modified afterwards. */
+    public void put(int block, byte[] data) {
+        Frame frame = new Frame(block, data);
+        clockLock.lock();
+        try {
+            if (frames.containsKey(block)) {
+                return;
+            }
+            // Clear reference bits until an unreferenced frame turns up; at most one full turn plus one
+            while (true) {
+                Frame victim = clock[hand];
+                if (victim == null || !victim.referenced) {
+                    if (victim != null && frames.remove(victim.block, victim)) {
+                        evictions.increment();
+                    }
+                    break;
+                }
+                victim.referenced = false;
+                hand = (hand + 1) % clock.length;
+            }
+            clock[hand] = frame;
+            hand = (hand + 1) % clock.length;
+            frames.put(block, frame);
+        } finally {
+            clockLock.unlock();
+        }
+    }
+
+    /** Drops count blocks starting at start. Their frames stay on the clock until swept. */
+    public void invalidate(int start, int count) {
+        for (int block = start; block < start + count; block++) {
+            frames.remove(block);
+        }
+    }
+
+    public int getCapacity() {
+        return clock.length;
+    }
+
+    public int size() {
+        return frames.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,113 @@
+package ca.concordia.filesystem;
+
+import ca.concordia.filesystem.datastructures.BlockBitmap;
+import ca.concordia.monitoring.Log;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Background thread that overwrites freed blocks with zeroes, for installations that must
+ * not leave deleted data on disk. Frees never wait for it: blocks go back to the allocator
+ * at once and are paced out to the disk at a fixed byte rate. A block that was handed to
+ * another file before its turn came is skipped; files never expose bytes past their own size.
+ * Blocks still queued when the volume is closed are left as they are.
+ */
+public class BlockScrubber implements Runnable {
+
+    private final StorageBackend storage;
+    private final ReentrantLock allocatorLock;
+    private final BlockBitmap freeBlocks;
+    private final long dataOffset;
+    private final int blockSize;
+    private final long nanosPerBlock;
+    private final byte[] zeroBlock;
+    private final BlockingQueue<int[]> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile long scrubbedBlocks;
+
+    public BlockScrubber(StorageBackend storage, ReentrantLock allocatorLock, BlockBitmap freeBlocks,
+                         long dataOffset, int blockSize, long bytesPerSecond) {
+        this.storage = storage;
+        this.allocatorLock = allocatorLock;
+        this.freeBlocks = freeBlocks;
+        this.dataOffset = dataOffset;
+        this.blockSize = blockSize;
+        this.nanosPerBlock = TimeUnit.SECONDS.toNanos(1) * blockSize / bytesPerSecond;
+        this.zeroBlock = new byte[blockSize];
+        this.thread = new Thread(this, "block-scrubber");
+        thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /** Queues length blocks starting at start for erasure. */
+    public void submit(int start, int length) {
+        if (length > 0) {
+            queue.add(new int[]{start, length});
+        }
+    }
+
+    public long getScrubbedBlocks() {
+        return scrubbedBlocks;
+    }
+
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        while (running) {
+            int[] run;
+            try {
+                run = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (int block = run[0]; block < run[0] + run[1]; block++) {
+                if (!running) {
+                    return;
+                }
+                // Sleep off any credit built up while idle, so bursts never exceed the rate either
+                next = Math.max(next, System.nanoTime() - nanosPerBlock) + nanosPerBlock;
+                long wait;
+                while (running && (wait = next - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                try {
+                    scrub(block);
+                } catch (IOException e) {
+                    Log.warn("Failed to scrub block " + block + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Zeroes the block only while it is still free; the allocator lock keeps it from being claimed meanwhile
+    private void scrub(int block) throws IOException {
+        allocatorLock.lock();
+        try {
+            if (freeBlocks.isFree(block)) {
+                storage.write(dataOffset + (long) block * blockSize, zeroBlock, 0, blockSize);
+                scrubbedBlocks++;
+            }
+        } finally {
+            allocatorLock.unlock();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ca.concordia.filesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * Writes everything it is given to one channel. A non-blocking channel, such as an NIO server's
+ * socket, is waited on with a private selector whenever it is full instead of being retried in a
+ * spin; the selector is only opened the first time that happens. Used by one thread at a time.
+ */
+final class ChannelWriter implements Closeable {
+
+    private static final long TIMEOUT_MILLIS = 30_000;
+
+    private final GatheringByteChannel target;
+    private Selector selector;
+
+    ChannelWriter(GatheringByteChannel target) {
+        this.target = target;
+    }
+
+    void write(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (target.write(src) == 0) {
+                awaitWritable();
+            }
+        }
+    }
+
+    void write(ByteBuffer[] srcs, long total) throws IOException {
+        for (long written = 0; written < total; ) {
+            long n = target.write(srcs);
+            if (n == 0) {
+                awaitWritable();
+            }
+            written += n;
+        }
+    }
+
+    void transfer(StorageBackend storage, long position, long count) throws IOException {
+        while (count > 0) {
+            long n = storage.transferTo(position, count, target);
+            if (n == 0) {
+                awaitWritable();
+            }
+            position += n;
+            count -= n;
+        }
+    }
+
+    private void awaitWritable() throws IOException {
+        if (!(target instanceof SelectableChannel) || ((SelectableChannel) target).isBlocking()) {
+            return; // A blocking channel that took nothing will take something on the next try
+        }
+        if (selector == null) {
+            selector = Selector.open();
+            ((SelectableChannel) target).register(selector, SelectionKey.OP_WRITE);
+        }
+        if (selector.select(TIMEOUT_MILLIS) == 0) {
+            throw new IOException("Timed out writing to a receiver that stopped reading.");
+        }
+        selector.selectedKeys().clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (selector != null) {
+            selector.close();
+        }
+    }
+}
@@ -1,35 +1,77 @@
 package ca.concordia.filesystem;
 
+import ca.concordia.filesystem.datastructures.BlockBitmap;
+import ca.concordia.filesystem.datastructures.DirectoryIndex;
+import ca.concordia.filesystem.datastructures.ExtentList;
 import ca.concordia.filesystem.datastructures.FEntry;
-import ca.concordia.filesystem.datastructures.FNode;
+import ca.concordia.filesystem.datastructures.FileIndex;
+import ca.concordia.filesystem.datastructures.Superblock;
+import ca.concordia.monitoring.Metrics;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongFunction;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class FileSystemManager {
 
-    private final int MAXFILES = 5;
-    private final int MAXBLOCKS = 10;
-    private static FileSystemManager instance;
-    private final RandomAccessFile disk;
-    private ReentrantLock globalLock = new ReentrantLock();
-    private final ReadWriteLock rw = new ReentrantReadWriteLock(true);
-    private static final int BLOCK_SIZE = 128; // Example block size
-    private byte[] zeroBlock = new byte[BLOCK_SIZE];
-    private final Object opLock = new Object();
+    private final int MAXFILES;
+    private final int MAXBLOCKS;
+    private static volatile FileSystemManager instance;
+    // Not a monitor: init() mounts the volume, and a virtual thread blocked in a monitor pins its carrier
+    private static final ReentrantLock instanceLock = new ReentrantLock();
+    private final StorageBackend storage;
+    private final Superblock superblock; // Geometry and region offsets, fixed at format time
+    private final int BLOCK_SIZE;
 
+    // Lock order: FEntry lock -> namespaceLock -> allocatorLock. createFile only locks unnamed entries
+    // while holding namespaceLock, and lookups only tryLock under it, so neither can deadlock. Directories
+    // are entries too, locked only by their creation and removal.
+    private final ReentrantReadWriteLock namespaceLock = new ReentrantReadWriteLock(true); // Guards filenames
+    private final ReentrantLock allocatorLock = new ReentrantLock(); // Guards freeBlocks
 
-    private FEntry[] entriesTable; // Array of inodes
-    private FNode[] blocksTable;
-    private boolean[] freeBlockList; // Bitmap for free blocks
 
-    public static synchronized void init(String fileName, int totalSize) throws IOException {
-        if (instance == null) {
-            instance = new FileSystemManager(fileName, totalSize);
+    private final FEntry[] entriesTable; // Array of inodes
+    private final FileIndex fileIndex; // Full path -> entriesTable slot, guarded by namespaceLock
+    private final DirectoryIndex directoryIndex; // Sorted names in each directory, guarded by namespaceLock
+    private final BlockBitmap freeBlocks; // Bitmap for free blocks, mirrored on disk in the bitmap region
+    private final ByteBuffer bitmapBuffer;
+    private final MetadataJournal journal;
+    private final BlockScrubber scrubber; // null unless freed blocks must be erased
+    private final BlockCache cache; // null if disabled
+    private final AtomicLong generations = new AtomicLong(); // Source of FEntry generations, unique per volume
+    private final int streamChunk; // Bytes a streaming read or write moves per step: whole blocks, about 64 KB
+
+    public static void init(String fileName, int totalSize) throws IOException {
+        init(fileName, new FileSystemOptions().totalSize(totalSize));
+    }
+
+    public static void init(String fileName, FileSystemOptions options) throws IOException {
+        instanceLock.lock();
+        try {
+            if (instance == null) {
+                instance = new FileSystemManager(fileName, options);
+            }
+        } finally {
+            instanceLock.unlock();
         }
     }
 
@@ -41,337 +83,1203 @@ public class FileSystemManager {
     }
 
     public FileSystemManager(String fileName, int totalSize) throws IOException {
+        this(fileName, new FileSystemOptions().totalSize(totalSize));
+    }
+
+    public FileSystemManager(String fileName, FileSystemOptions options) throws IOException {
         // Initialize the file system manager with a file
-        if (instance == null) {
-            disk = new RandomAccessFile(fileName, "rw");
-            byte[] emptyEntry = new byte[15];
-            entriesTable = new FEntry[MAXFILES];
-            blocksTable = new FNode[MAXBLOCKS];
-            freeBlockList = new boolean[MAXBLOCKS];
-
-            for (int i = 0; i < MAXFILES; i++) {
-                long offset = (long) i * emptyEntry.length;
-                disk.seek(offset);
-                disk.write(emptyEntry, 0, emptyEntry.length);
-                entriesTable[i] = new FEntry("", (short) 0, (short) -1);
-            }
-
-            for (int i = 0; i < MAXBLOCKS; i++) {
-                int indexOffset = 15 * MAXFILES + i * 4;
-                int indexLinkedNode = indexOffset + 2;
-                short index = (short) i;
-                byte[] indexBuffer = ByteBuffer.allocate(2).putShort(index).array();
-                byte[] linkedNodeBuffer = ByteBuffer.allocate(2).putShort((short) -1).array();
-                byte[] emptyNameBuffer = "".getBytes();
-                disk.seek(indexOffset);
-                disk.write(emptyNameBuffer, 0, emptyNameBuffer.length);
-                disk.seek(indexOffset);
-                disk.write(indexBuffer, 0, indexBuffer.length);
-                disk.seek(indexLinkedNode);
-                disk.write(linkedNodeBuffer, 0, linkedNodeBuffer.length);
-
-                blocksTable[i] = new FNode((short) i);
-                if (i == 0) {
-                    freeBlockList[i] = false;
-                } else {
-                    freeBlockList[i] = true;
-                }
-            }
+        if (instance != null) {
+            throw new IllegalStateException("FileSystemManager is already initialized.");
+        }
+
+        // Mounting only reads metadata; data blocks are never touched and nothing is wiped
+        if (options.isFormat()) {
+            format(fileName, Superblock.forVolume(options.getTotalSize(), options.getBlockSize(),
+                    options.getMaxFiles(), options.getJournalSize()));
+        } else if (!isFormatted(fileName)) {
+            throw new IOException("Disk image '" + fileName + "' is not formatted.");
+        }
+
+        storage = StorageBackend.open(fileName, options.getStorage());
+        ByteBuffer header = ByteBuffer.allocate(Superblock.SIZE);
+        storage.read(0, header.array(), 0, Superblock.SIZE);
+        superblock = Superblock.readFrom(header);
+
+        MAXFILES = superblock.getMaxFiles();
+        MAXBLOCKS = superblock.getBlockCount();
+        BLOCK_SIZE = superblock.getBlockSize();
+        streamChunk = Math.max(1, 64 * 1024 / BLOCK_SIZE) * BLOCK_SIZE;
+
+        // Replay before reading any metadata, so the tables below include every committed operation
+        journal = new MetadataJournal(storage, superblock.getJournalOffset(), superblock.getJournalSize(),
+                options.getDurability(), options.getCommitWindowMicros());
+        boolean clean = journal.recover();
+
+        entriesTable = new FEntry[MAXFILES];
+        fileIndex = new FileIndex(MAXFILES);
+        directoryIndex = new DirectoryIndex(MAXFILES);
+        loadEntryTable();
 
+        loadExtents();
+
+        freeBlocks = new BlockBitmap(MAXBLOCKS);
+        bitmapBuffer = ByteBuffer.allocate(freeBlocks.byteSize());
+        if (clean) {
+            loadBitmap();
         } else {
-            throw new IllegalStateException("FileSystemManager is already initialized.");
+            rebuildBitmap();
+        }
+
+        long cacheBlocks = Math.min(options.getCacheBytes() / BLOCK_SIZE, MAXBLOCKS);
+        cache = cacheBlocks > 0 ? new BlockCache((int) cacheBlocks) : null;
+        if (options.getScrubBytesPerSecond() > 0) {
+            scrubber = new BlockScrubber(storage, allocatorLock, freeBlocks, superblock.getDataOffset(),
+                    BLOCK_SIZE, options.getScrubBytesPerSecond());
+            scrubber.start();
+        } else {
+            scrubber = null;
         }
 
         instance = this;
 
     }
 
+    /**
+     * Flushes and closes the disk image, marking it cleanly unmounted. The next init() or
+     * constructor call may then open another volume.
+     */
+    public void close() throws IOException {
+        instanceLock.lock();
+        try {
+            if (instance == this) {
+                instance = null;
+            }
+        } finally {
+            instanceLock.unlock();
+        }
+        if (scrubber != null) {
+            scrubber.close();
+        }
+        allocatorLock.lock();
+        try {
+            flushBitmap();
+        } finally {
+            allocatorLock.unlock();
+        }
+        journal.close();
+        storage.close();
+    }
+
+    /**
+     * True if fileName holds a superblock. Images of other versions count as formatted, so they
+     * are refused at mount instead of being wiped by callers that format whatever is not.
+     */
+    public static boolean isFormatted(String fileName) throws IOException {
+        File image = new File(fileName);
+        if (!image.isFile() || image.length() < Superblock.SIZE) {
+            return false;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(image, "r")) {
+            return in.readInt() == Superblock.MAGIC;
+        }
+    }
+
+    /**
+     * Writes an empty volume to fileName. totalSize is the capacity of the data region in bytes;
+     * blockSize must be a power of two between 128 bytes and 1 MB. Data blocks are left sparse,
+     * so formatting a multi-GB image only writes its metadata.
+     */
+    public static void format(String fileName, long totalSize, int blockSize, int maxFiles) throws IOException {
+        format(fileName, Superblock.forVolume(totalSize, blockSize, maxFiles));
+    }
+
+    private static void format(String fileName, Superblock layout) throws IOException {
+        try (RandomAccessFile image = new RandomAccessFile(fileName, "rw")) {
+            FileChannel out = image.getChannel();
+            // Truncating first zeroes every region: empty entries and extents, a free bitmap, an empty journal and blank data
+            image.setLength(0);
+            image.setLength(layout.getImageSize());
+
+            ByteBuffer header = ByteBuffer.allocate(Superblock.SIZE);
+            layout.writeTo(header);
+            header.clear();
+            out.write(header, 0);
+        }
+    }
+
     public void createFile(String fileName) throws Exception {
-        System.out.println("FSM instance hash = " + System.identityHashCode(FileSystemManager.getInstance()));
-        synchronized(opLock){
-        rw.writeLock().lock();
+        create(fileName, false);
+    }
+
+    /**
+     * Creates an empty directory. Paths name a file or directory under others, as in a/b/c;
+     * the parent must exist. A directory takes an entry but no data blocks.
+     */
+    public void createDirectory(String path) throws Exception {
+        create(path, true);
+    }
+
+    private void create(String path, boolean directory) throws Exception {
+        FEntry entry;
+        Transaction tx = new Transaction();
+        acquire(namespaceLock.writeLock());
         try {
-            boolean freeFileFound = false;
-            short indexFile = 0;
-            short firstNode = -1;
-            for (int i = 0; i < MAXFILES; i++) {
-                if (entriesTable[i].getFilename().equals("")) {
-                    freeFileFound = true;
-                    indexFile = (short) i;
-                    break;
-                }
+            int indexFile = createEntry(path, directory, tx);
+            // Creating a file that already exists leaves it untouched, like touch
+            if (indexFile == -1) {
+                return;
             }
-            if (freeFileFound == true) {
-                for (int j = 0; j < MAXBLOCKS; j++) {
-                    if (freeBlockList[j] == true && firstNode == (short) -1) {
-                        firstNode = (short) j;
-                        freeBlockList[j] = false;
-                    }
-                }
+            entry = entriesTable[indexFile];
+            try {
+                // Submitting under the namespace lock logs creates and deletes of a name in the order they happened
+                journal.submit(tx);
+            } catch (Exception e) {
+                entry.getLock().writeLock().unlock();
+                throw e;
+            }
+        } finally {
+            namespaceLock.writeLock().unlock();
+        }
 
+        // Nobody can open the new file until it is durable
+        try {
+            journal.await(tx);
+        } finally {
+            entry.getLock().writeLock().unlock();
+        }
+    }
+
+    // Sets up a new, empty file or directory and logs it in tx. Returns its slot with the entry's write
+    // lock held, or -1 if a file of that name exists. Caller holds the namespace write lock.
+    private int createEntry(String fileName, boolean directory, Transaction tx) throws Exception {
+        int parent = parentOf(fileName);
+        int existing = fileIndex.find(fileName);
+        if (existing != -1) {
+            if (directory || entriesTable[existing].isDirectory()) {
+                throw new Exception("'" + fileName + "' already exists.");
+            }
+            return -1;
+        }
+        if (fileIndex.size() == MAXFILES) {
+            throw new Exception("You cannot create new file because maximum number of files has been reached.");
+        }
+
+        int firstNode = -1;
+        if (!directory) {
+            allocatorLock.lock();
+            try {
+                firstNode = freeBlocks.allocate();
+                flushBitmap();
+            } finally {
+                allocatorLock.unlock();
             }
 
-            if (freeFileFound == false) {
-                throw new Exception("You cannot create new file because maximum number of files has been reached.");
-            } else if (firstNode == (short) -1) {
+            if (firstNode == -1) {
                 throw new Exception("No space available on disk to create this file.");
             }
+        }
 
-            // setting metadata for file entries
-            entriesTable[indexFile].setFilename(fileName);
-            entriesTable[indexFile].setFilesize((short) 0);
-            entriesTable[indexFile].setFirstBlock(firstNode);
-            disk.seek(indexFile * 15);
-            disk.write(fileName.getBytes(), 0, fileName.getBytes().length);
-            disk.seek(indexFile * 15 + 11);
-            disk.write(ByteBuffer.allocate(2).putShort((short) 0).array(), 0, 2);
-            disk.seek(indexFile * 15 + 13);
-            disk.write(ByteBuffer.allocate(2).putShort(firstNode).array(), 0, 2);
-        } finally {
-            rw.writeLock().unlock();
+        int indexFile = fileIndex.allocateSlot();
+        // A delete of the previous occupant may still be committing or releasing its blocks
+        FEntry entry = entriesTable[indexFile];
+        acquire(entry.getLock().writeLock());
+        // setting metadata for file entries
+        entry.setFilename(fileName);
+        entry.setParent(parent);
+        entry.setDirectory(directory);
+        entry.setFilesize(0);
+        entry.setFirstBlock(firstNode);
+        entry.setExtents(directory ? ExtentList.EMPTY : ExtentList.of(firstNode, 1));
+        entry.setGeneration(generations.incrementAndGet());
+        fileIndex.put(indexFile, fileName.getBytes(StandardCharsets.UTF_8));
+        if (directory) {
+            directoryIndex.addDirectory(indexFile);
         }
+        directoryIndex.add(parent, entry.getName(), indexFile);
+        if (!directory) {
+            logExtent(tx, entry.getExtents(), 0);
+        }
+        logEntry(tx, indexFile);
+        return indexFile;
     }
+
+    // The slot of the directory that would hold path, checking each component of path on the way.
+    // Caller holds the namespace lock.
+    private int parentOf(String path) throws Exception {
+        if (path.isEmpty()) {
+            throw new IllegalArgumentException("Filename cannot be empty.");
+        }
+        int start = 0;
+        for (int end; start <= path.length(); start = end + 1) {
+            end = path.indexOf('/', start);
+            if (end == -1) {
+                end = path.length();
+            }
+            String component = path.substring(start, end);
+            if (component.isEmpty() || component.equals(".") || component.equals("..")) {
+                throw new IllegalArgumentException("Invalid path '" + path + "'.");
+            }
+            if (component.getBytes(StandardCharsets.UTF_8).length > FEntry.NAME_SIZE) {
+                throw new IllegalArgumentException("Filename cannot be longer than " + FEntry.NAME_SIZE + " bytes.");
+            }
+        }
+        int slash = path.lastIndexOf('/');
+        if (slash == -1) {
+            return FEntry.ROOT;
+        }
+        String parentPath = path.substring(0, slash);
+        int parent = findEntry(parentPath, true);
+        if (parent == -1) {
+            throw new Exception("The directory '" + parentPath + "' does not exist.");
+        }
+        return parent;
     }
 
     public void deleteFile(String fileName) throws Exception {
-        synchronized(opLock){
-        rw.writeLock().lock();
+        int indexFile = lockEntry(fileName, true);
+        FEntry entry = entriesTable[indexFile];
         try {
+            ExtentList extents;
+            Transaction tx = new Transaction();
+            acquire(namespaceLock.writeLock());
+            try {
+                extents = deleteEntry(indexFile, tx);
+                journal.submit(tx);
+            } finally {
+                namespaceLock.writeLock().unlock();
+            }
 
-            boolean fileFound = false;
-            short indexFile = 0;
-            short firstNodeIndex = -1;
-            short currentNodeIndex;
-            short nextNodeIndex;
-            boolean isNextNode = false;
-            for (int i = 0; i < MAXFILES; i++) {
-                if (entriesTable[i].getFilename().equals(fileName)) {
-                    fileFound = true;
-                    indexFile = (short) i;
-                    firstNodeIndex = entriesTable[i].getFirstBlock();
-                    break;
+            // The name is gone, so the commit and the release can wait without blocking lookups.
+            // The blocks may only go to another file once the delete is durable.
+            journal.await(tx);
+            releaseBlocks(extents, 0);
+        } finally {
+            entry.getLock().writeLock().unlock();
+        }
+    }
+
+    /** Removes an empty directory. */
+    public void deleteDirectory(String path) throws Exception {
+        int indexFile = lockEntry(path, true, true);
+        FEntry entry = entriesTable[indexFile];
+        try {
+            Transaction tx = new Transaction();
+            acquire(namespaceLock.writeLock());
+            try {
+                if (!directoryIndex.isEmpty(indexFile)) {
+                    throw new Exception("The directory '" + path + "' is not empty.");
+                }
+                deleteEntry(indexFile, tx);
+                journal.submit(tx);
+            } finally {
+                namespaceLock.writeLock().unlock();
+            }
+            journal.await(tx);
+        } finally {
+            entry.getLock().writeLock().unlock();
+        }
+    }
+
+    // Empties the slot and logs it in tx; returns the blocks to release once tx is durable.
+    // Caller holds the namespace write lock and the entry's write lock.
+    private ExtentList deleteEntry(int indexFile, Transaction tx) {
+        FEntry entry = entriesTable[indexFile];
+        ExtentList extents = entry.getExtents();
+        directoryIndex.remove(entry.getParent(), entry.getName());
+        if (entry.isDirectory()) {
+            directoryIndex.removeDirectory(indexFile);
+        }
+        // resetting file entries to empty
+        entry.setFilename("");
+        entry.setParent(FEntry.ROOT);
+        entry.setDirectory(false);
+        entry.setFilesize(0);
+        entry.setFirstBlock(-1);
+        entry.setExtents(ExtentList.EMPTY);
+        entry.setGeneration(generations.incrementAndGet());
+        fileIndex.remove(indexFile);
+        logEntry(tx, indexFile);
+        return extents;
+    }
+
+    public void writeFile(String fileName, byte[] contents) throws Exception {
+        writeFile(fileName, contents, 0, contents.length);
+    }
+
+    /** Replaces the file's contents with src[off..off+len), so callers can pass part of a larger buffer. */
+    public void writeFile(String fileName, byte[] src, int off, int len) throws Exception {
+        Objects.checkFromIndexSize(off, len, src.length);
+        int entryIndex = lockEntry(fileName, true);
+        try {
+            writeAt(entryIndex, 0, src, off, len, true);
+        } finally {
+            entriesTable[entryIndex].getLock().writeLock().unlock();
+        }
+    }
+
+    /** Adds contents to the end of the file, touching only its last block and any new ones. */
+    public void appendFile(String fileName, byte[] contents) throws Exception {
+        appendFile(fileName, contents, 0, contents.length);
+    }
+
+    public void appendFile(String fileName, byte[] src, int off, int len) throws Exception {
+        Objects.checkFromIndexSize(off, len, src.length);
+        int entryIndex = lockEntry(fileName, true);
+        FEntry entry = entriesTable[entryIndex];
+        try {
+            writeAt(entryIndex, entry.getFilesize(), src, off, len, false);
+        } finally {
+            entry.getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Overwrites the bytes at offset, growing the file if they run past its end. Bytes between
+     * the old end and offset read back as zeroes. The rest of the file is left as it was.
+     */
+    public void writeFile(String fileName, long offset, byte[] contents) throws Exception {
+        writeFile(fileName, offset, contents, 0, contents.length);
+    }
+
+    public void writeFile(String fileName, long offset, byte[] src, int off, int len) throws Exception {
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset cannot be negative.");
+        }
+        Objects.checkFromIndexSize(off, len, src.length);
+        int entryIndex = lockEntry(fileName, true);
+        try {
+            writeAt(entryIndex, offset, src, off, len, false);
+        } finally {
+            entriesTable[entryIndex].getLock().writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces the file's contents with everything in, moved streamChunk bytes at a time so that
+     * memory use does not depend on the file's size. Each chunk is read from in before the file's
+     * write lock is taken and written under it, so a slow sender never blocks other access to the
+     * file; readers may see the upload part way. A failure part way leaves the bytes written so
+     * far. Returns the new size.
+     */
+    public long writeFile(String fileName, InputStream in) throws Exception {
+        return writeStream(fileName, in, true);
+    }
+
+    /** Adds everything in to the end of the file, a chunk at a time like writeFile(fileName, in). Returns the bytes added. */
+    public long appendFile(String fileName, InputStream in) throws Exception {
+        return writeStream(fileName, in, false);
+    }
+
+    /**
+     * Writes the whole file to out a chunk at a time, so that memory use does not depend on its
+     * size. Each chunk is copied under the file's read lock and written to out after it is
+     * released, so a slow receiver never holds up writers; a file changed meanwhile is sent as it
+     * is when each chunk is read. A lookup failure throws before anything is written, and the
+     * file disappearing part way throws an IOException. Returns the number of bytes written.
+     */
+    public long readFile(String fileName, OutputStream out) throws Exception {
+        byte[] chunk = null;
+        long position = 0;
+        while (true) {
+            int entryIndex;
+            try {
+                entryIndex = lockEntry(fileName, false);
+            } catch (Exception e) {
+                if (chunk == null) {
+                    throw e;
                 }
+                throw new IOException("The file was removed during the read.", e);
             }
-            if (fileFound) {
-                // resetting file entries to empty
-                entriesTable[indexFile].setFilename("");
-                entriesTable[indexFile].setFilesize((short) 0);
-                entriesTable[indexFile].setFirstBlock((short) -1);
-                disk.seek(indexFile * 15);
-                disk.write(entriesTable[indexFile].getFilename().getBytes(), 0,
-                        entriesTable[indexFile].getFilename().getBytes().length);
-                disk.seek(indexFile * 15 + 11);
-                disk.write(ByteBuffer.allocate(2).putShort((short) 0).array(), 0, 2);
-                disk.seek(indexFile * 15 + 13);
-                disk.write(ByteBuffer.allocate(2).putShort((short) -1).array(), 0, 2);
-                currentNodeIndex = firstNodeIndex;
-
-                while (currentNodeIndex != -1) {
-
-                    // resetting the blocks with empty data
-                    disk.seek(blocksTable[currentNodeIndex].getBlockIndex() * BLOCK_SIZE + BLOCK_SIZE);
-                    disk.write(zeroBlock);
-                    freeBlockList[blocksTable[currentNodeIndex].getBlockIndex()] = true;
-                    nextNodeIndex = (short) blocksTable[currentNodeIndex].getNext();
-                    blocksTable[currentNodeIndex].setNext((short) -1);
-                    currentNodeIndex = nextNodeIndex;
+            FEntry entry = entriesTable[entryIndex];
+            int n;
+            try {
+                long remaining = entry.getFilesize() - position;
+                if (chunk == null) {
+                    chunk = new byte[(int) Math.min(streamChunk, Math.max(remaining, 0))];
+                }
+                n = (int) Math.min(chunk.length, Math.max(remaining, 0));
+                if (n > 0) {
+                    readRange(entry.getExtents(), position, chunk, 0, n, false);
                 }
+            } finally {
+                entry.getLock().readLock().unlock();
+            }
+            if (n == 0) {
+                return position;
+            }
+            out.write(chunk, 0, n);
+            position += n;
+        }
+    }
 
-            } else {
+    public byte[] readFile(String fileName) throws Exception {
+        return readFile(fileName, 0);
+    }
+
+    /**
+     * Reads the whole file into a new array, starting at index headroom. The space in front is
+     * left for the caller, e.g. a protocol header that can then go out in the same write.
+     */
+    public byte[] readFile(String fileName, int headroom) throws Exception {
+        int entryIndex = lockEntry(fileName, false);
+        FEntry entry = entriesTable[entryIndex];
+        try {
+            if (entry.getFilesize() > Integer.MAX_VALUE - 8 - headroom) {
+                throw new Exception("The file is too large to be read at once.");
+            }
+            byte[] output = new byte[headroom + (int) entry.getFilesize()];
+            readRange(entry.getExtents(), 0, output, headroom, output.length - headroom, true);
+            return output;
+        } finally {
+            entry.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * Reads up to length bytes starting at offset. The result is shorter than length if the
+     * file ends first, and empty if offset is at or past the end.
+     */
+    public byte[] readFile(String fileName, long offset, int length) throws Exception {
+        return readFile(fileName, offset, length, 0);
+    }
+
+    /** Ranged read that leaves headroom bytes free at the start of the result, like readFile(fileName, headroom). */
+    public byte[] readFile(String fileName, long offset, int length, int headroom) throws Exception {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset and length cannot be negative.");
+        }
+        int entryIndex = lockEntry(fileName, false);
+        FEntry entry = entriesTable[entryIndex];
+        try {
+            long available = Math.max(0, entry.getFilesize() - offset);
+            byte[] output = new byte[headroom + (int) Math.min(length, available)];
+            readRange(entry.getExtents(), offset, output, headroom, output.length - headroom, true);
+            return output;
+        } finally {
+            entry.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * Ranged read into the caller's array, for callers that reuse one buffer across reads.
+     * Reads up to len bytes starting at offset into dst[dstOff..) and returns how many it read.
+     */
+    public int readFile(String fileName, long offset, byte[] dst, int dstOff, int len) throws Exception {
+        if (offset < 0 || len < 0) {
+            throw new IllegalArgumentException("Offset and length cannot be negative.");
+        }
+        int entryIndex = lockEntry(fileName, false);
+        FEntry entry = entriesTable[entryIndex];
+        try {
+            int n = (int) Math.min(len, Math.max(0, entry.getFilesize() - offset));
+            readRange(entry.getExtents(), offset, dst, dstOff, n, true);
+            return n;
+        } finally {
+            entry.getLock().readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs ops in order as one unit of locking and logging: the files they name are locked once,
+     * the namespace lock is taken once, and all of their metadata goes to the journal in a single
+     * transaction, so the whole batch costs one flush. An operation that fails, such as a write
+     * to a missing file, does not stop the others; its exception is returned at its position and
+     * the other positions are null. I/O errors abort the batch. The batch becomes durable as a whole.
+     */
+    public Exception[] batch(List<BatchOperation> ops) throws Exception {
+        for (BatchOperation op : ops) {
+            if (op.getData() != null) {
+                Objects.checkFromIndexSize(op.getOffset(), op.getLength(), op.getData().length);
+            }
+        }
+        List<FEntry> held = lockBatchEntries(ops);
+        try {
+            Exception[] failures = new Exception[ops.size()];
+            Transaction tx = new Transaction();
+            List<Release> releases = new ArrayList<>();
+            List<Integer> written = new ArrayList<>();
+            acquire(namespaceLock.writeLock());
+            try {
+                for (int i = 0; i < ops.size(); i++) {
+                    BatchOperation op = ops.get(i);
+                    try {
+                        if (op.getKind() == BatchOperation.Kind.CREATE) {
+                            int created = createEntry(op.getFileName(), false, tx);
+                            if (created != -1) {
+                                held.add(entriesTable[created]);
+                            }
+                            continue;
+                        }
+                        int entryIndex = heldEntry(op.getFileName(), held);
+                        FEntry entry = entriesTable[entryIndex];
+                        ExtentList old = entry.getExtents();
+                        if (op.getKind() == BatchOperation.Kind.DELETE) {
+                            releases.add(new Release(deleteEntry(entryIndex, tx), 0));
+                        } else {
+                            boolean append = op.getKind() == BatchOperation.Kind.APPEND;
+                            boolean ranged = op.getKind() == BatchOperation.Kind.WRITE_AT;
+                            long position = append ? entry.getFilesize() : ranged ? op.getPosition() : 0;
+                            // Recorded only once the write is staged: a failed one keeps its blocks
+                            int kept = stageWrite(entryIndex, position, op.getData(), op.getOffset(), op.getLength(),
+                                    !append && !ranged, tx);
+                            releases.add(new Release(old, kept));
+                            written.add(entryIndex);
+                        }
+                    } catch (IOException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        failures[i] = e;
+                    }
+                }
+                if (!tx.isEmpty()) {
+                    journal.submit(tx);
+                }
+            } finally {
+                namespaceLock.writeLock().unlock();
+            }
+
+            if (!tx.isEmpty()) {
+                journal.await(tx);
+            }
+            for (int entryIndex : written) {
+                entriesTable[entryIndex].setGeneration(generations.incrementAndGet());
+            }
+            for (Release release : releases) {
+                releaseBlocks(release.extents, release.fromBlock);
+            }
+            return failures;
+        } finally {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).getLock().writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Sends up to length bytes of the file from offset straight from the disk image to target,
+     * after the buffer header returns for the actual byte count. A range within one extent goes
+     * out with transferTo (sendfile); a fragmented one as a gathering write of the header and a
+     * view of each extent. The file's read lock is held until target has taken the last byte, so
+     * writers to this file wait for a slow receiver. A non-blocking target is waited on when full.
+     * Returns the number of file bytes sent. A lookup failure throws before anything is written.
+     */
+    public long transferFile(String fileName, long offset, long length, LongFunction<ByteBuffer> header,
+                             GatheringByteChannel target) throws Exception {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Offset and length cannot be negative.");
+        }
+        int entryIndex = lockEntry(fileName, false);
+        FEntry entry = entriesTable[entryIndex];
+        try {
+            long count = Math.min(length, Math.max(0, entry.getFilesize() - offset));
+            ByteBuffer head = header.apply(count);
+            ExtentList extents = entry.getExtents();
+            int first = count > 0 ? extents.extentAt((int) (offset / BLOCK_SIZE)) : 0;
+            int last = count > 0 ? extents.extentAt((int) ((offset + count - 1) / BLOCK_SIZE)) : 0;
+            try (ChannelWriter out = new ChannelWriter(target)) {
+                if (first == last) {
+                    out.write(head);
+                    if (count > 0) {
+                        long extentStart = (long) extents.firstFileBlock(first) * BLOCK_SIZE;
+                        out.transfer(storage, blockOffset(extents.start(first)) + (offset - extentStart), count);
+                    }
+                    return count;
+                }
+
+                ByteBuffer[] parts = new ByteBuffer[last - first + 2];
+                parts[0] = head;
+                long position = offset;
+                long remaining = count;
+                for (int extent = first; extent <= last; extent++) {
+                    long extentStart = (long) extents.firstFileBlock(extent) * BLOCK_SIZE;
+                    long extentEnd = extentStart + (long) extents.length(extent) * BLOCK_SIZE;
+                    int chunk = (int) Math.min(remaining, extentEnd - position);
+                    parts[extent - first + 1] = storage.view(blockOffset(extents.start(extent)) + (position - extentStart), chunk);
+                    position += chunk;
+                    remaining -= chunk;
+                }
+                out.write(parts, head.remaining() + count);
+                return count;
+            }
+        } finally {
+            entry.getLock().readLock().unlock();
+        }
+    }
+
+    /** The file's size for sizing decisions: a write in progress is not waited for, so it may be stale. */
+    public long getFileSize(String fileName) throws Exception {
+        acquire(namespaceLock.readLock());
+        try {
+            int entryIndex = findEntry(fileName);
+            if (entryIndex == -1) {
                 throw new Exception("The file entered does not exist.");
             }
+            return entriesTable[entryIndex].getFilesize();
         } finally {
-            rw.writeLock().unlock();
+            namespaceLock.readLock().unlock();
         }
     }
+
+    /** The names at the top of the tree; see listDirectory. */
+    public String[] listFiles() {
+        try {
+            return listDirectory("");
+        } catch (Exception e) {
+            throw new IllegalStateException(e); // The top of the tree always exists
+        }
     }
 
-    public void writeFile(String fileName, byte[] contents) throws Exception {
-        System.out.println("FSM instance hash = " + System.identityHashCode(FileSystemManager.getInstance()));
-        synchronized(opLock){
-        rw.writeLock().lock();
+    /**
+     * The names in a directory, "" or "/" for the top of the tree, in order. Directories end
+     * in '/'. Costs as much as the directory holds, not the whole volume.
+     */
+    public String[] listDirectory(String path) throws Exception {
+        acquire(namespaceLock.readLock());
         try {
-            boolean fileFound = false;
+            boolean root = path.isEmpty() || path.equals("/");
+            int directory = root ? FEntry.ROOT : findEntry(path, true);
+            if (!root && directory == -1) {
+                throw new Exception("The directory '" + path + "' does not exist.");
+            }
+            Map<String, Integer> children = directoryIndex.list(directory);
+            String[] filesList = new String[children.size()];
+            int index = 0;
+            for (Map.Entry<String, Integer> child : children.entrySet()) {
+                filesList[index++] = entriesTable[child.getValue()].isDirectory() ? child.getKey() + "/" : child.getKey();
+            }
+            return filesList;
+        } finally {
+            namespaceLock.readLock().unlock();
+        }
+    }
 
-            short entryIndex = -1;
-            for (int i = 0; i < MAXFILES; i++) {
-                if (entriesTable[i].getFilename().equals(fileName)) {
-                    fileFound = true;
-                    entryIndex = (short) i;
+    /**
+     * One page of the paths that start with prefix, in order: up to limit of them, all in the
+     * directory the part of prefix before its last '/' names, and all sorting after the path
+     * after, if it is not null. Paging with after set to the last path of the previous page
+     * never repeats a path, and each page holds the namespace lock only while it is collected.
+     * Directories end in '/'.
+     */
+    public String[] listDirectory(String prefix, String after, int limit) throws Exception {
+        int slash = prefix.lastIndexOf('/');
+        String path = slash == -1 ? "" : prefix.substring(0, slash);
+        String namePrefix = prefix.substring(slash + 1);
+        String afterName = null;
+        if (after != null) {
+            if (after.endsWith("/")) {
+                after = after.substring(0, after.length() - 1); // A directory, as it was listed
+            }
+            int afterSlash = after.lastIndexOf('/');
+            if (!after.substring(0, Math.max(0, afterSlash)).equals(path)) {
+                throw new Exception("The cursor does not belong to this listing.");
+            }
+            afterName = after.substring(afterSlash + 1);
+        }
+        String parent = path.isEmpty() ? "" : path + "/";
+
+        acquire(namespaceLock.readLock());
+        try {
+            int directory = path.isEmpty() ? FEntry.ROOT : findEntry(path, true);
+            if (!path.isEmpty() && directory == -1) {
+                throw new Exception("The directory '" + path + "' does not exist.");
+            }
+            NavigableMap<String, Integer> children = directoryIndex.list(directory);
+            Map<String, Integer> range = afterName != null && afterName.compareTo(namePrefix) >= 0
+                    ? children.tailMap(afterName, false) : children.tailMap(namePrefix, true);
+            List<String> page = new ArrayList<>(Math.min(limit, 64));
+            for (Map.Entry<String, Integer> child : range.entrySet()) {
+                if (page.size() == limit || !child.getKey().startsWith(namePrefix)) {
                     break;
                 }
+                page.add(parent + child.getKey() + (entriesTable[child.getValue()].isDirectory() ? "/" : ""));
             }
+            return page.toArray(new String[0]);
+        } finally {
+            namespaceLock.readLock().unlock();
+        }
+    }
 
-            if (!fileFound) {
+    /**
+     * A number that changes whenever the file is created, written or deleted, so that name and
+     * generation together identify one version of its contents. Does not wait for writers.
+     */
+    public long getGeneration(String fileName) throws Exception {
+        acquire(namespaceLock.readLock());
+        try {
+            int entryIndex = findEntry(fileName);
+            if (entryIndex == -1) {
                 throw new Exception("The file entered does not exist.");
             }
+            return entriesTable[entryIndex].getGeneration();
+        } finally {
+            namespaceLock.readLock().unlock();
+        }
+    }
+
+    /** The metadata journal, for its commit and force counters. */
+    public MetadataJournal getJournal() {
+        return journal;
+    }
 
-            short oldNode = entriesTable[entryIndex].getFirstBlock();
-            int oldBlocks = 0;
+    /** The data block cache, for its hit, miss and eviction counters; null if the cache is disabled. */
+    public BlockCache getBlockCache() {
+        return cache;
+    }
+
+    // Every full chunk is a whole number of blocks, so each step after the first only adds blocks
+    private long writeStream(String fileName, InputStream in, boolean replace) throws Exception {
+        byte[] chunk = new byte[streamChunk];
+        long start = -1;
+        long position = 0;
+        while (true) {
+            // Filled before locking, so a slow sender only ever holds up its own transfer
+            int n = fill(in, chunk);
+            int entryIndex = lockEntry(fileName, true);
+            try {
+                if (start == -1) {
+                    start = replace ? 0 : entriesTable[entryIndex].getFilesize();
+                    position = start;
+                }
+                if (n > 0 || (replace && position == 0)) {
+                    // The first chunk truncates, so even an empty stream empties the file
+                    writeAt(entryIndex, position, chunk, 0, n, replace && position == 0);
+                }
+                position += n;
+            } finally {
+                entriesTable[entryIndex].getLock().writeLock().unlock();
+            }
+            if (n < chunk.length) {
+                return position - start;
+            }
+        }
+    }
 
-            short tempNode = oldNode;
-            while (tempNode != -1) {
-                oldBlocks++;
-                tempNode = (short) blocksTable[tempNode].getNext();
+    // Reads until chunk is full or in ends; a short count means the end was reached
+    private static int fill(InputStream in, byte[] chunk) throws IOException {
+        int count = 0;
+        while (count < chunk.length) {
+            int n = in.read(chunk, count, chunk.length - count);
+            if (n == -1) {
+                break;
             }
+            count += n;
+        }
+        return count;
+    }
 
-            int fileSize = contents.length;
-            int blocksNeeded = (fileSize + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    // Writes src[off..off+len) at offset, reusing the blocks the file already has and allocating only
+    // the ones past its end. With truncate the file ends after them and the surplus blocks are freed.
+    // Blocks are overwritten in place, so a crash can leave a mix of old and new bytes; the journal
+    // still keeps the extents and size consistent. Caller holds the entry's write lock.
+    private void writeAt(int entryIndex, long offset, byte[] src, int off, int len, boolean truncate) throws Exception {
+        ExtentList old = entriesTable[entryIndex].getExtents();
+        Transaction tx = new Transaction();
+        int kept = stageWrite(entryIndex, offset, src, off, len, truncate, tx);
+        journal.commit(tx);
+        // Bumped once the new contents are in place; a reader that still sees the old one overlapped this write
+        entriesTable[entryIndex].setGeneration(generations.incrementAndGet());
 
-            int freeBlocks = 0;
-            for (int i = 0; i < MAXBLOCKS; i++) {
-                if (freeBlockList[i]) {
-                    freeBlocks++;
+        // Whatever the committed extents no longer cover can be handed out again
+        releaseBlocks(old, kept);
+    }
+
+    // The data half of writeAt: writes the blocks and logs the new extents and size in tx. Returns how
+    // many of the old extents' blocks the file keeps; the rest may only be released once tx is durable.
+    private int stageWrite(int entryIndex, long offset, byte[] src, int off, int len, boolean truncate,
+                           Transaction tx) throws Exception {
+        FEntry entry = entriesTable[entryIndex];
+        ExtentList old = entry.getExtents();
+        long oldSize = entry.getFilesize();
+        long fileSize = truncate ? offset + len : Math.max(entry.getFilesize(), offset + len);
+        if ((fileSize + BLOCK_SIZE - 1) / BLOCK_SIZE > MAXBLOCKS) {
+            throw new Exception("No space available on disk to create to perform this write operation.");
+        }
+        int blocksNeeded = (int) ((fileSize + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        int kept = truncate ? Math.min(old.blockCount(), blocksNeeded) : old.blockCount();
+        int extra = Math.max(0, blocksNeeded - kept);
+
+        ExtentList extents = old.truncate(kept);
+        if (extra > 0) {
+            int[] fresh = new int[extra];
+            allocatorLock.lock();
+            try {
+                if (freeBlocks.getFreeCount() < extra) {
+                    throw new Exception("No space available on disk to create to perform this write operation.");
                 }
+                freeBlocks.allocate(extra, fresh, 0);
+                flushBitmap();
+            } finally {
+                allocatorLock.unlock();
             }
+            extents = extents.append(fresh, 0, extra);
+        }
 
-            int totalAvailable = oldBlocks + freeBlocks;
-
-            if (totalAvailable < blocksNeeded) {
-                throw new Exception("No space available on disk to create to perform this write operation.");
+        // Freed blocks are not zeroed, so a gap left by writing past the end must be
+        if (offset > oldSize) {
+            byte[] zeroes = new byte[(int) Math.min(BLOCK_SIZE, offset - oldSize)];
+            for (long position = oldSize; position < offset; position += zeroes.length) {
+                writeRange(extents, position, zeroes, 0, (int) Math.min(zeroes.length, offset - position));
+            }
+        }
+        writeRange(extents, offset, src, off, len);
 
+        // Only extents whose record changed are logged: usually the last old one and any new ones
+        for (int i = 0; i < extents.size(); i++) {
+            if (!extents.sameRecord(i, old)) {
+                logExtent(tx, extents, i);
             }
+        }
+        entry.setFilesize(fileSize);
+        entry.setFirstBlock(extents.size() == 0 ? -1 : extents.start(0));
+        entry.setExtents(extents);
+        logEntry(tx, entryIndex);
+        if (len > 0) {
+            tx.orderAfterData();
+        }
+        return kept;
+    }
 
-            short current = oldNode;
-            while (current != -1) {
+    // Each step moves as much as the current extent holds, so a sequential file is one large I/O.
+    // Only reads within one block go through the cache, and only if cacheable: a longer read is
+    // served as well by the extent reads and would push the small, hot blocks out of the cache.
+    private void readRange(ExtentList extents, long position, byte[] dst, int off, int len,
+                           boolean cacheable) throws IOException {
+        if (cache != null && cacheable && len > 0 && position / BLOCK_SIZE == (position + len - 1) / BLOCK_SIZE) {
+            readCached(extents, position, dst, off, len);
+            return;
+        }
+        int extent = len > 0 ? extents.extentAt((int) (position / BLOCK_SIZE)) : 0;
+        while (len > 0) {
+            long extentStart = (long) extents.firstFileBlock(extent) * BLOCK_SIZE;
+            long extentEnd = extentStart + (long) extents.length(extent) * BLOCK_SIZE;
+            int chunk = (int) Math.min(len, extentEnd - position);
+            storage.read(blockOffset(extents.start(extent)) + (position - extentStart), dst, off, chunk);
+            position += chunk;
+            off += chunk;
+            len -= chunk;
+            extent++;
+        }
+    }
 
-                short blockIndex = (short) blocksTable[current].getBlockIndex();
-                short nextNode = (short) blocksTable[current].getNext();
-                disk.seek(BLOCK_SIZE + blockIndex * BLOCK_SIZE);
-                disk.write(zeroBlock);
-                freeBlockList[blockIndex] = true;
-                blocksTable[current].setNext((short) -1);
-                current = nextNode;
+    // A range within one block: served from the cached block, which a miss reads and adds
+    private void readCached(ExtentList extents, long position, byte[] dst, int off, int len) throws IOException {
+        int block = extents.blockAt((int) (position / BLOCK_SIZE));
+        byte[] data = cache.get(block);
+        if (data == null) {
+            data = new byte[BLOCK_SIZE];
+            storage.read(blockOffset(block), data, 0, BLOCK_SIZE);
+            cache.put(block, data);
+        }
+        System.arraycopy(data, (int) (position % BLOCK_SIZE), dst, off, len);
+    }
+
+    // Cached copies of the written blocks are dropped, not patched; readers of this file wait on its lock
+    private void writeRange(ExtentList extents, long position, byte[] src, int off, int len) throws IOException {
+        int extent = len > 0 ? extents.extentAt((int) (position / BLOCK_SIZE)) : 0;
+        while (len > 0) {
+            long extentStart = (long) extents.firstFileBlock(extent) * BLOCK_SIZE;
+            long extentEnd = extentStart + (long) extents.length(extent) * BLOCK_SIZE;
+            int chunk = (int) Math.min(len, extentEnd - position);
+            storage.write(blockOffset(extents.start(extent)) + (position - extentStart), src, off, chunk);
+            if (cache != null) {
+                int first = (int) ((position - extentStart) / BLOCK_SIZE);
+                int last = (int) ((position + chunk - 1 - extentStart) / BLOCK_SIZE);
+                cache.invalidate(extents.start(extent) + first, last - first + 1);
             }
+            position += chunk;
+            off += chunk;
+            len -= chunk;
+            extent++;
+        }
+    }
 
-            short firstBlock = -1;
-            short prevNode = -1;
-            int copied = 0;
-            int needed = blocksNeeded;
-            for (int i = 0; i < MAXBLOCKS && needed > 0; i++) {
-                if (freeBlockList[i]) {
-                    freeBlockList[i] = false; // mark used
-                    short thisNode = (short) i;
-                    if (firstBlock == -1) {
-                        firstBlock = thisNode;
-                    } else {
-                        blocksTable[prevNode].setNext(thisNode);
-                    }
-                    short blockIndex = (short) blocksTable[thisNode].getBlockIndex();
-                    long offset = BLOCK_SIZE + blockIndex * BLOCK_SIZE;
-                    disk.seek(offset);
-                    int chunk = Math.min(BLOCK_SIZE, fileSize - copied);
-                    disk.write(contents, copied, chunk);
-                    if (chunk < BLOCK_SIZE) {
-                        disk.write(new byte[BLOCK_SIZE - chunk]);
-                    }
-                    copied += chunk;
-                    prevNode = thisNode;
-                    needed--;
+    // Looks the file up under the namespace read lock and hands over to the file's own lock.
+    // If the file is busy the namespace lock is dropped before waiting, so a long write to one
+    // file never stalls lookups of the others. The caller must unlock the returned entry.
+    private int lockEntry(String fileName, boolean exclusive) throws Exception {
+        return lockEntry(fileName, exclusive, false);
+    }
+
+    private int lockEntry(String fileName, boolean exclusive, boolean directory) throws Exception {
+        while (true) {
+            FEntry entry;
+            int entryIndex;
+            acquire(namespaceLock.readLock());
+            try {
+                entryIndex = findEntry(fileName, directory);
+                if (entryIndex == -1) {
+                    throw new Exception(directory ? "The directory '" + fileName + "' does not exist."
+                            : "The file entered does not exist.");
+                }
+                entry = entriesTable[entryIndex];
+                if (exclusive ? entry.getLock().writeLock().tryLock() : entry.getLock().readLock().tryLock()) {
+                    return entryIndex;
                 }
+            } finally {
+                namespaceLock.readLock().unlock();
             }
 
-            if (prevNode != -1) {
-                blocksTable[prevNode].setNext((short) -1);
-            }
-            entriesTable[entryIndex].setFilesize((short) fileSize);
-            entriesTable[entryIndex].setFirstBlock(firstBlock);
-            byte[] nameBytes = new byte[11];
-            byte[] raw = entriesTable[entryIndex].getFilename().getBytes();
-            System.arraycopy(raw, 0, nameBytes, 0, raw.length);
-            long inodeOffset = entryIndex * 15;
-            disk.seek(inodeOffset);
-            disk.write(nameBytes);
-            disk.write(ByteBuffer.allocate(2).putShort((short) fileSize).array());
-            disk.write(ByteBuffer.allocate(2).putShort(firstBlock).array());
-            System.out.println("Write complete.");
-        } finally {
-            rw.writeLock().unlock();
+            acquire(exclusive ? entry.getLock().writeLock() : entry.getLock().readLock());
+            // Names only change under the entry's write lock, so this check is stable
+            if (entry.getFilename().equals(fileName) && entry.isDirectory() == directory) {
+                return entryIndex;
+            }
+            if (exclusive) {
+                entry.getLock().writeLock().unlock();
+            } else {
+                entry.getLock().readLock().unlock();
+            }
         }
     }
-    }
 
-    public byte[] readFile(String fileName) throws Exception {
-        System.out.println("FSM instance hash = " + System.identityHashCode(FileSystemManager.getInstance()));
-        synchronized(opLock){
-        rw.readLock().lock();
+    // Takes lock, timing the wait for Metrics only when someone else holds it. The timed tryLock,
+    // unlike tryLock(), respects the fair ordering of the namespace and entry locks.
+    private static void acquire(Lock lock) {
         try {
-            boolean fileFound = false;
-            short entryIndex = -1;
-            for (int i = 0; i < MAXFILES; i++) {
-                if (entriesTable[i].getFilename().equals(fileName)) {
-                    entryIndex = (short) i;
-                    fileFound = true;
-                    break;
+            if (lock.tryLock(0, TimeUnit.NANOSECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long start = System.nanoTime();
+        lock.lock();
+        Metrics.get().lockWaited(System.nanoTime() - start);
+    }
+
+    // Write-locks the files ops name that exist now, in slot order so that two batches cannot
+    // deadlock. Starts over if a file moved to another slot while it was being waited for.
+    private List<FEntry> lockBatchEntries(List<BatchOperation> ops) throws Exception {
+        while (true) {
+            Map<Integer, String> slots = new TreeMap<>();
+            acquire(namespaceLock.readLock());
+            try {
+                for (BatchOperation op : ops) {
+                    int entryIndex = findEntry(op.getFileName());
+                    if (entryIndex != -1 && op.getKind() != BatchOperation.Kind.CREATE) {
+                        slots.putIfAbsent(entryIndex, op.getFileName());
+                    }
                 }
+            } finally {
+                namespaceLock.readLock().unlock();
+            }
 
+            List<FEntry> held = new ArrayList<>();
+            boolean moved = false;
+            for (Map.Entry<Integer, String> slot : slots.entrySet()) {
+                int entryIndex;
+                try {
+                    entryIndex = lockEntry(slot.getValue(), true);
+                } catch (Exception e) {
+                    continue; // Deleted meanwhile; the operation reports it
+                }
+                held.add(entriesTable[entryIndex]);
+                if (entryIndex != slot.getKey()) {
+                    moved = true;
+                    break;
+                }
             }
-            if (!fileFound) {
-                throw new Exception("The file entered does not exist.");
+            if (!moved) {
+                return held;
             }
-            short fileSize = entriesTable[entryIndex].getFilesize();
-            short firstBlockIndex = entriesTable[entryIndex].getFirstBlock();
-            if (fileSize == 0 || firstBlockIndex == -1) {
-                return new byte[0];
+            for (FEntry entry : held) {
+                entry.getLock().writeLock().unlock();
             }
-            byte[] output = new byte[fileSize];
-            int copied = 0;
-            short currentNodeIndex = firstBlockIndex;
-            while (currentNodeIndex != -1 && copied < fileSize) {
+        }
+    }
 
-                short blockIndex = (short) blocksTable[currentNodeIndex].getBlockIndex();
+    // A batch's file, which must be locked by the batch already or be free to lock without waiting:
+    // waiting here, under the namespace lock, could deadlock with a delete. Caller holds the namespace write lock.
+    private int heldEntry(String fileName, List<FEntry> held) throws Exception {
+        int entryIndex = findEntry(fileName);
+        if (entryIndex == -1) {
+            throw new Exception("The file entered does not exist.");
+        }
+        FEntry entry = entriesTable[entryIndex];
+        if (!held.contains(entry)) {
+            // Created by someone else after the batch locked its files
+            if (!entry.getLock().writeLock().tryLock()) {
+                throw new Exception("The file is busy, try again.");
+            }
+            held.add(entry);
+        }
+        return entryIndex;
+    }
 
-                long offset = BLOCK_SIZE + blockIndex * BLOCK_SIZE;
-                disk.seek(offset);
+    // Files only: a directory's path is not a file
+    private int findEntry(String fileName) {
+        return findEntry(fileName, false);
+    }
 
-                byte[] temp = new byte[BLOCK_SIZE];
-                disk.read(temp);
+    private int findEntry(String path, boolean directory) {
+        int entryIndex = fileIndex.find(path);
+        return entryIndex != -1 && entriesTable[entryIndex].isDirectory() == directory ? entryIndex : -1;
+    }
 
-                int bytesToCopy = Math.min(BLOCK_SIZE, fileSize - copied);
+    // Rebuilds entriesTable, the path index and the directory index from the on-disk FEntry region
+    private void loadEntryTable() throws IOException {
+        ByteBuffer records = ByteBuffer.allocate(MAXFILES * FEntry.RECORD_SIZE);
+        storage.read(superblock.getEntryTableOffset(), records.array(), 0, records.capacity());
+        fileIndex.clear();
+        directoryIndex.clear();
+        String[] names = new String[MAXFILES];
+        for (int i = 0; i < MAXFILES; i++) {
+            entriesTable[i] = FEntry.readFrom(records);
+            names[i] = entriesTable[i].getFilename();
+            if (!names[i].isEmpty() && entriesTable[i].isDirectory()) {
+                directoryIndex.addDirectory(i);
+            }
+        }
+        String[] paths = new String[MAXFILES];
+        for (int i = 0; i < MAXFILES; i++) {
+            if (!names[i].isEmpty()) {
+                FEntry entry = entriesTable[i];
+                entry.setFilename(resolvePath(i, names, paths, 0));
+                fileIndex.put(i, entry.getFilename().getBytes(StandardCharsets.UTF_8));
+                directoryIndex.add(entry.getParent(), names[i], i);
+            }
+        }
+        fileIndex.rebuildFreeSlots();
+    }
 
-                System.arraycopy(temp, 0, output, copied, bytesToCopy);
-                copied += bytesToCopy;
+    // The full path of slot, from the names of it and its ancestors; depth stops a cycle of parent links
+    private String resolvePath(int slot, String[] names, String[] paths, int depth) throws IOException {
+        if (paths[slot] == null) {
+            int parent = entriesTable[slot].getParent();
+            if (parent == FEntry.ROOT) {
+                paths[slot] = names[slot];
+            } else if (parent < 0 || parent >= MAXFILES || !directoryIndex.isDirectory(parent) || depth == MAXFILES) {
+                throw new IOException("Parent of '" + names[slot] + "' is corrupt.");
+            } else {
+                paths[slot] = resolvePath(parent, names, paths, depth + 1) + "/" + names[slot];
+            }
+        }
+        return paths[slot];
+    }
 
-                currentNodeIndex = (short) blocksTable[currentNodeIndex].getNext();
+    // Reads each named file's extent records, following the next links from its first block
+    private void loadExtents() throws IOException {
+        int[] starts = new int[16];
+        int[] lengths = new int[16];
+        for (FEntry entry : entriesTable) {
+            if (entry.getFilename().isEmpty()) {
+                continue;
             }
+            int count = 0;
+            int blocks = 0;
+            for (int start = entry.getFirstBlock(); start != -1; start = storage.readInt(extentOffset(start) + ExtentList.NEXT_OFFSET)) {
+                int length = start >= 0 && start < MAXBLOCKS ? storage.readInt(extentOffset(start)) : 0;
+                if (length <= 0 || length > MAXBLOCKS - start || (blocks += length) > MAXBLOCKS) {
+                    throw new IOException("Extent list of '" + entry.getFilename() + "' is corrupt.");
+                }
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    lengths = Arrays.copyOf(lengths, count * 2);
+                }
+                starts[count] = start;
+                lengths[count++] = length;
+            }
+            entry.setExtents(ExtentList.of(starts, lengths, count));
+        }
+    }
 
-            return output;
+    // Frees the file's blocks from fromBlock on once no committed metadata refers to them. Their old
+    // contents stay on disk: readers never look past a file's size, and the scrubber erases them if configured.
+    private void releaseBlocks(ExtentList extents, int fromBlock) throws IOException {
+        if (fromBlock >= extents.blockCount()) {
+            return;
+        }
+        int first = extents.extentAt(fromBlock);
+        allocatorLock.lock();
+        try {
+            for (int i = first; i < extents.size(); i++) {
+                int skip = Math.max(0, fromBlock - extents.firstFileBlock(i));
+                if (cache != null) {
+                    cache.invalidate(extents.start(i) + skip, extents.length(i) - skip);
+                }
+                for (int block = extents.start(i) + skip; block < extents.start(i) + extents.length(i); block++) {
+                    freeBlocks.markFree(block);
+                }
+            }
+            flushBitmap();
         } finally {
-            rw.readLock().unlock();
+            allocatorLock.unlock();
+        }
+        if (scrubber != null) {
+            for (int i = first; i < extents.size(); i++) {
+                int skip = Math.max(0, fromBlock - extents.firstFileBlock(i));
+                scrubber.submit(extents.start(i) + skip, extents.length(i) - skip);
+            }
         }
     }
+
+    private void loadBitmap() throws IOException {
+        storage.read(superblock.getBitmapOffset(), bitmapBuffer.array(), 0, bitmapBuffer.capacity());
+        bitmapBuffer.clear();
+        freeBlocks.readFrom(bitmapBuffer);
     }
 
-    public String[] listFiles() {
-        synchronized(opLock){
-        rw.readLock().lock();
+    // The bitmap is not journaled, so after a crash it may disagree with the replayed extents.
+    // Every used block is reachable from an entry, so it can be rebuilt from those instead.
+    private void rebuildBitmap() throws IOException {
+        allocatorLock.lock();
         try {
-
-            System.out.println("List of files:");
-            int filesCount = 0;
-            for (int i = 0; i < MAXFILES; i++) {
-                if (!entriesTable[i].getFilename().equals("")) {
-                    filesCount++;
+            freeBlocks.reset();
+            for (FEntry entry : entriesTable) {
+                ExtentList extents = entry.getExtents();
+                for (int i = 0; i < extents.size(); i++) {
+                    for (int block = extents.start(i); block < extents.start(i) + extents.length(i); block++) {
+                        freeBlocks.markUsed(block);
+                    }
                 }
             }
+            flushBitmap();
+        } finally {
+            allocatorLock.unlock();
+        }
+    }
 
-            String[] filesList = new String[filesCount];
-            int index = 0;
+    // Writes back only the bitmap words touched since the last flush. Called with allocatorLock held.
+    private void flushBitmap() throws IOException {
+        if (freeBlocks.drainDirty(bitmapBuffer)) {
+            storage.write(superblock.getBitmapOffset() + freeBlocks.dirtyOffset(), bitmapBuffer.array(), 0, bitmapBuffer.limit());
+            freeBlocks.clearDirty();
+        }
+    }
 
-            for (int i = 0; i < MAXFILES; i++) {
-                if (!entriesTable[i].getFilename().equals("")) {
-                    String fileName = entriesTable[i].getFilename();
-                    System.out.println(fileName);
-                    filesList[index++] = fileName;
-                }
-            }
+    private void logEntry(Transaction tx, int indexFile) {
+        ByteBuffer record = ByteBuffer.allocate(FEntry.RECORD_SIZE);
+        int length = entriesTable[indexFile].writeTo(record);
+        tx.write(entryOffset(indexFile), record.array(), 0, length);
+    }
 
-            return filesList;
-        } finally {
-            rw.readLock().unlock();
+    private long entryOffset(int indexFile) {
+        return superblock.getEntryTableOffset() + (long) indexFile * FEntry.RECORD_SIZE;
+    }
+
+    private void logExtent(Transaction tx, ExtentList extents, int extent) {
+        tx.writeInt(extentOffset(extents.start(extent)), extents.length(extent));
+        tx.writeInt(extentOffset(extents.start(extent)) + ExtentList.NEXT_OFFSET, extents.next(extent));
+    }
+
+    private long extentOffset(int blockIndex) {
+        return superblock.getExtentTableOffset() + (long) blockIndex * ExtentList.RECORD_SIZE;
+    }
+
+    private long blockOffset(int blockIndex) {
+        return superblock.getDataOffset() + (long) blockIndex * BLOCK_SIZE;
+    }
+
+    // Blocks a batch frees once it is durable: those of extents from fromBlock on
+    private static final class Release {
+        final ExtentList extents;
+        final int fromBlock;
+
+        Release(ExtentList extents, int fromBlock) {
+            this.extents = extents;
+            this.fromBlock = fromBlock;
         }
     }
 }
-}
 
-// nc localhost 12345
\ No newline at end of file
+// nc localhost 12345
@@ -0,0 +1,149 @@
+package ca.concordia.filesystem;
+
+import ca.concordia.filesystem.datastructures.Superblock;
+
+/**
+ * Settings for opening a volume. The geometry (total size, block size, file count, journal size)
+ * only takes effect when the image is formatted, which happens only if format(true) is set;
+ * otherwise the existing image is mounted.
+ */
+public class FileSystemOptions {
+
+    private long totalSize = 10 * 128;
+    private int blockSize = 128;
+    private int maxFiles = 5;
+    private long journalSize = Superblock.DEFAULT_JOURNAL_SIZE;
+    private StorageBackend.Kind storage = StorageBackend.Kind.MAPPED;
+    private MetadataJournal.Durability durability = MetadataJournal.Durability.GROUP_COMMIT;
+    private long commitWindowMicros;
+    private long scrubBytesPerSecond;
+    private long cacheBytes = 4L * 1024 * 1024;
+    private boolean format;
+
+    /** Reads overrides such as -Dfs.blockSize=4096, -Dfs.storage=random_access or -Dfs.durability=per_op. */
+    public static FileSystemOptions fromSystemProperties() {
+        FileSystemOptions options = new FileSystemOptions();
+        options.totalSize = Long.getLong("fs.totalSize", options.totalSize);
+        options.blockSize = Integer.getInteger("fs.blockSize", options.blockSize);
+        options.maxFiles = Integer.getInteger("fs.maxFiles", options.maxFiles);
+        options.journalSize = Long.getLong("fs.journalSize", options.journalSize);
+        options.commitWindowMicros = Long.getLong("fs.commitWindowMicros", options.commitWindowMicros);
+        options.scrubBytesPerSecond = Long.getLong("fs.scrubBytesPerSecond", options.scrubBytesPerSecond);
+        options.cacheBytes = Long.getLong("fs.cacheBytes", options.cacheBytes);
+        options.format = Boolean.getBoolean("fs.format");
+        String storage = System.getProperty("fs.storage");
+        if (storage != null) {
+            options.storage = StorageBackend.Kind.valueOf(storage.toUpperCase());
+        }
+        String durability = System.getProperty("fs.durability");
+        if (durability != null) {
+            options.durability = MetadataJournal.Durability.valueOf(durability.toUpperCase().replace('-', '_'));
+        }
+        return options;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /** Capacity of the data region in bytes. */
+    public FileSystemOptions totalSize(long totalSize) {
+        this.totalSize = totalSize;
+        return this;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public FileSystemOptions blockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    public int getMaxFiles() {
+        return maxFiles;
+    }
+
+    public FileSystemOptions maxFiles(int maxFiles) {
+        this.maxFiles = maxFiles;
+        return this;
+    }
+
+    public long getJournalSize() {
+        return journalSize;
+    }
+
+    /** Size of the metadata journal region in bytes; 0 formats a volume without one. */
+    public FileSystemOptions journalSize(long journalSize) {
+        this.journalSize = journalSize;
+        return this;
+    }
+
+    public StorageBackend.Kind getStorage() {
+        return storage;
+    }
+
+    public FileSystemOptions storage(StorageBackend.Kind storage) {
+        this.storage = storage;
+        return this;
+    }
+
+    public MetadataJournal.Durability getDurability() {
+        return durability;
+    }
+
+    public FileSystemOptions durability(MetadataJournal.Durability durability) {
+        this.durability = durability;
+        return this;
+    }
+
+    public long getCommitWindowMicros() {
+        return commitWindowMicros;
+    }
+
+    /**
+     * How long a group commit waits for more operations to join before forcing.
+     * 0 only batches the commits that queued up during the previous force.
+     */
+    public FileSystemOptions commitWindowMicros(long commitWindowMicros) {
+        this.commitWindowMicros = commitWindowMicros;
+        return this;
+    }
+
+    public long getScrubBytesPerSecond() {
+        return scrubBytesPerSecond;
+    }
+
+    /**
+     * Erases freed blocks in the background at up to this many bytes per second.
+     * 0 (the default) leaves freed data on disk until the block is reused.
+     */
+    public FileSystemOptions scrubBytesPerSecond(long scrubBytesPerSecond) {
+        this.scrubBytesPerSecond = scrubBytesPerSecond;
+        return this;
+    }
+
+    public long getCacheBytes() {
+        return cacheBytes;
+    }
+
+    /**
+     * Memory for cached data blocks, whatever the block size; 0, or less than one block,
+     * disables the cache.
+     */
+    public FileSystemOptions cacheBytes(long cacheBytes) {
+        this.cacheBytes = cacheBytes;
+        return this;
+    }
+
+    public boolean isFormat() {
+        return format;
+    }
+
+    /** Wipes the image and writes a fresh volume with this geometry before mounting it. */
+    public FileSystemOptions format(boolean format) {
+        this.format = format;
+        return this;
+    }
+}
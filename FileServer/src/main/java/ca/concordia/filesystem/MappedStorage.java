@@ -0,0 +1,147 @@
+package ca.concordia.filesystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Backend that maps the whole image into memory in fixed 1 GB segments, so block I/O is a
+ * memory copy and metadata fields are updated in place. Region offsets and block sizes are
+ * powers of two no larger than a segment, so a block never straddles two segments; bulk
+ * copies still split at segment boundaries for metadata records that might.
+ */
+public class MappedStorage implements StorageBackend {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    private final RandomAccessFile disk;
+    private final FileChannel channel; // For transferTo, which the kernel serves from the same page cache
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    public MappedStorage(String fileName) throws IOException {
+        disk = new RandomAccessFile(fileName, "rw");
+        channel = disk.getChannel();
+        size = channel.size();
+        segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+    }
+
+    @Override
+    public void read(long position, byte[] dst, int off, int len) {
+        while (len > 0) {
+            MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+            int index = (int) (position & (SEGMENT_SIZE - 1));
+            int n = Math.min(len, segment.limit() - index);
+            segment.get(index, dst, off, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(long position, byte[] src, int off, int len) {
+        while (len > 0) {
+            MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+            int index = (int) (position & (SEGMENT_SIZE - 1));
+            int n = Math.min(len, segment.limit() - index);
+            segment.put(index, src, off, n);
+            position += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        if (position + count > size) {
+            throw new EOFException("Read past the end of the disk image at " + position);
+        }
+        return channel.transferTo(position, count, target);
+    }
+
+    @Override
+    public ByteBuffer view(long position, int len) {
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+        int index = (int) (position & (SEGMENT_SIZE - 1));
+        if (index + len <= segment.limit()) {
+            return segment.slice(index, len).asReadOnlyBuffer();
+        }
+        byte[] copy = new byte[len];
+        read(position, copy, 0, len);
+        return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+    }
+
+    @Override
+    public int readInt(long position) {
+        int index = (int) (position & (SEGMENT_SIZE - 1));
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+        if (index + Integer.BYTES <= segment.limit()) {
+            return segment.getInt(index);
+        }
+        byte[] raw = new byte[Integer.BYTES];
+        read(position, raw, 0, raw.length);
+        return ByteBuffer.wrap(raw).getInt();
+    }
+
+    @Override
+    public void writeInt(long position, int value) {
+        int index = (int) (position & (SEGMENT_SIZE - 1));
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+        if (index + Integer.BYTES <= segment.limit()) {
+            segment.putInt(index, value);
+        } else {
+            write(position, ByteBuffer.allocate(Integer.BYTES).putInt(value).array(), 0, Integer.BYTES);
+        }
+    }
+
+    @Override
+    public long readLong(long position) {
+        int index = (int) (position & (SEGMENT_SIZE - 1));
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+        if (index + Long.BYTES <= segment.limit()) {
+            return segment.getLong(index);
+        }
+        byte[] raw = new byte[Long.BYTES];
+        read(position, raw, 0, raw.length);
+        return ByteBuffer.wrap(raw).getLong();
+    }
+
+    @Override
+    public void writeLong(long position, long value) {
+        int index = (int) (position & (SEGMENT_SIZE - 1));
+        MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_SHIFT)];
+        if (index + Long.BYTES <= segment.limit()) {
+            segment.putLong(index, value);
+        } else {
+            write(position, ByteBuffer.allocate(Long.BYTES).putLong(value).array(), 0, Long.BYTES);
+        }
+    }
+
+    @Override
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Mappings are released when the buffers are collected; closing the file does not unmap them
+        disk.close();
+    }
+}
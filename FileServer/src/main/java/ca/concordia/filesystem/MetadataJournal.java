@@ -0,0 +1,323 @@
+package ca.concordia.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead log for metadata, kept in the journal region of the image.
+ * Operations log the after-image of the FEntry and extent records they change; those
+ * records are copied to their home locations only once the log is durable, and any
+ * committed records are replayed at mount. Commits that queue up while a force() is
+ * in flight are written and forced together by whichever caller gets there first
+ * (group commit), so N concurrent operations cost one force() instead of N.
+ *
+ * The log is reset with a new epoch once it fills up; records from an older epoch,
+ * or with a bad checksum, end the replay.
+ */
+public class MetadataJournal {
+
+    public enum Durability {
+        /** Nothing is logged or forced; a crash can leave metadata half-written. */
+        NONE,
+        /** Commits that arrive while a force() is in flight share the next one. */
+        GROUP_COMMIT,
+        /** Every commit is written and forced on its own. */
+        PER_OP
+    }
+
+    static final int RECORD_MAGIC = 0x54584E31; // "TXN1"
+    static final int RECORD_HEADER_SIZE = 20; // magic, epoch, length, write count
+
+    private static final int HEADER_MAGIC = 0x4A524E4C; // "JRNL"
+    private static final int HEADER_SIZE = 32;
+    private static final int STATE_CLEAN = 0;
+    private static final int STATE_DIRTY = 1;
+
+    private final StorageBackend storage;
+    private final long offset;
+    private final long capacity; // bytes available for records after the header
+    private final Durability durability;
+    private final long commitWindowNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committed = lock.newCondition();
+    private final Condition window = lock.newCondition();
+    private final ArrayDeque<Transaction> queue = new ArrayDeque<>();
+    private boolean flushing; // a caller is writing a batch; it alone touches epoch and head
+    private long epoch;
+    private long head; // next record position, relative to the end of the header
+    private long commits;
+    private long forces;
+
+    /** A journal of size 0 (a version 1 image) logs nothing, whatever the durability. */
+    public MetadataJournal(StorageBackend storage, long offset, long size, Durability durability, long commitWindowMicros) {
+        this.storage = storage;
+        this.offset = offset;
+        this.capacity = Math.max(0, size - HEADER_SIZE);
+        this.durability = capacity == 0 ? Durability.NONE : durability;
+        this.commitWindowNanos = TimeUnit.MICROSECONDS.toNanos(commitWindowMicros);
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Replays committed records and marks the volume as mounted. Returns false if the
+     * previous mount was never closed, in which case anything not covered by the log
+     * (the free bitmap) cannot be trusted.
+     */
+    public boolean recover() throws IOException {
+        if (capacity == 0) {
+            return true;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        storage.read(offset, header.array(), 0, HEADER_SIZE);
+        // A freshly formatted region is all zeroes: nothing to replay, nothing to distrust
+        boolean clean = true;
+        if (header.getInt() == HEADER_MAGIC) {
+            epoch = header.getLong();
+            clean = header.getInt() == STATE_CLEAN;
+
+            boolean replayed = false;
+            long position = 0;
+            ByteBuffer record;
+            while ((record = readRecord(position)) != null) {
+                replay(record);
+                position += record.capacity();
+                replayed = true;
+            }
+            if (replayed) {
+                storage.force();
+            }
+        }
+        epoch++;
+        head = 0;
+        writeHeader(STATE_DIRTY);
+        storage.force();
+        return clean;
+    }
+
+    /** Flushes everything and marks the volume as cleanly closed. The caller has quiesced all operations. */
+    public void close() throws IOException {
+        if (capacity == 0) {
+            return;
+        }
+        storage.force();
+        writeHeader(STATE_CLEAN);
+        storage.force();
+    }
+
+    /**
+     * Queues tx behind every transaction submitted before it. Callers that must order their
+     * commit against another operation submit while still holding the lock that orders them,
+     * then release it before waiting in await(). With Durability.NONE the writes go home now.
+     */
+    public void submit(Transaction tx) throws IOException {
+        if (durability == Durability.NONE) {
+            tx.apply(storage);
+            tx.done = true;
+            return;
+        }
+        lock.lock();
+        try {
+            queue.add(tx);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Blocks until tx is durable and its writes have reached their home locations. */
+    public void await(Transaction tx) throws IOException {
+        if (durability == Durability.NONE) {
+            return;
+        }
+        lock.lock();
+        try {
+            while (!tx.done) {
+                if (flushing) {
+                    committed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                if (commitWindowNanos > 0 && durability == Durability.GROUP_COMMIT) {
+                    // Give concurrent operations a moment to join this batch
+                    long remaining = commitWindowNanos;
+                    while (remaining > 0) {
+                        try {
+                            remaining = window.awaitNanos(remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+                List<Transaction> batch = drain();
+                IOException failure = null;
+                lock.unlock();
+                try {
+                    flush(batch);
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    lock.lock();
+                }
+                for (Transaction committedTx : batch) {
+                    committedTx.failure = failure;
+                    committedTx.done = true;
+                }
+                flushing = false;
+                committed.signalAll();
+            }
+            if (tx.failure != null) {
+                throw new IOException("Journal commit failed.", tx.failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void commit(Transaction tx) throws IOException {
+        submit(tx);
+        await(tx);
+    }
+
+    /** Transactions made durable so far. */
+    public long getCommitCount() {
+        lock.lock();
+        try {
+            return commits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Commit batches forced so far; commits / forces is the average group size. */
+    public long getForceCount() {
+        lock.lock();
+        try {
+            return forces;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes queued transactions in submission order, as many as fit in an empty log (at least one)
+    private List<Transaction> drain() {
+        List<Transaction> batch = new ArrayList<>();
+        long size = 0;
+        while (!queue.isEmpty()) {
+            long next = queue.peek().recordSize();
+            if (!batch.isEmpty() && (size + next > capacity || durability == Durability.PER_OP)) {
+                break;
+            }
+            batch.add(queue.poll());
+            size += next;
+        }
+        return batch;
+    }
+
+    // Called by the one caller that set flushing, without the lock
+    private void flush(List<Transaction> batch) throws IOException {
+        long size = 0;
+        boolean afterData = false;
+        for (Transaction tx : batch) {
+            size += tx.recordSize();
+            afterData |= tx.isOrderedAfterData();
+        }
+        if (head + size > capacity) {
+            checkpoint();
+        }
+        if (size > capacity) {
+            // A single transaction larger than the whole log cannot be made atomic; write it through
+            storage.force();
+            batch.get(0).apply(storage);
+            storage.force();
+            countBatch(batch.size());
+            return;
+        }
+
+        ByteBuffer records = ByteBuffer.allocate((int) size);
+        for (Transaction tx : batch) {
+            tx.writeRecord(records, epoch);
+        }
+        if (afterData) {
+            // New data blocks must be on disk before a commit record that points at them
+            storage.force();
+        }
+        storage.write(offset + HEADER_SIZE + head, records.array(), 0, records.capacity());
+        storage.force();
+        head += size;
+        for (Transaction tx : batch) {
+            tx.apply(storage);
+        }
+        countBatch(batch.size());
+    }
+
+    private void countBatch(int size) {
+        lock.lock();
+        try {
+            commits += size;
+            forces++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Every logged record has been applied home; once that is durable the log can start over
+    private void checkpoint() throws IOException {
+        storage.force();
+        epoch++;
+        head = 0;
+        writeHeader(STATE_DIRTY);
+        storage.force();
+    }
+
+    private void writeHeader(int state) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(HEADER_MAGIC).putLong(epoch).putInt(state);
+        storage.write(offset, header.array(), 0, HEADER_SIZE);
+    }
+
+    // Returns the complete, checksummed record of the current epoch at position, or null at the end of the log
+    private ByteBuffer readRecord(long position) throws IOException {
+        if (position + RECORD_HEADER_SIZE + Integer.BYTES > capacity) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        storage.read(offset + HEADER_SIZE + position, header.array(), 0, RECORD_HEADER_SIZE);
+        if (header.getInt() != RECORD_MAGIC || header.getLong() != epoch) {
+            return null;
+        }
+        int length = header.getInt();
+        if (length < RECORD_HEADER_SIZE + Integer.BYTES || position + length > capacity) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        storage.read(offset + HEADER_SIZE + position, record.array(), 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, length - Integer.BYTES);
+        if (record.getInt(length - Integer.BYTES) != (int) crc.getValue()) {
+            return null;
+        }
+        return record;
+    }
+
+    private void replay(ByteBuffer record) throws IOException {
+        record.position(RECORD_HEADER_SIZE - Integer.BYTES);
+        int writes = record.getInt();
+        for (int i = 0; i < writes; i++) {
+            long position = record.getLong();
+            int length = record.getInt();
+            storage.write(position, record.array(), record.position(), length);
+            record.position(record.position() + length);
+        }
+    }
+}
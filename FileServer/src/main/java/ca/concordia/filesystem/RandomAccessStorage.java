@@ -0,0 +1,94 @@
+package ca.concordia.filesystem;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/** Fallback backend using positional FileChannel I/O on a RandomAccessFile. */
+public class RandomAccessStorage implements StorageBackend {
+
+    private final RandomAccessFile disk;
+    private final FileChannel channel; // Positional I/O so threads never share a seek pointer
+
+    public RandomAccessStorage(String fileName) throws IOException {
+        disk = new RandomAccessFile(fileName, "rw");
+        channel = disk.getChannel();
+    }
+
+    @Override
+    public void read(long position, byte[] dst, int off, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(dst, off, len);
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf, position);
+            if (n < 0) {
+                throw new EOFException("Read past the end of the disk image at " + position);
+            }
+            position += n;
+        }
+    }
+
+    @Override
+    public void write(long position, byte[] src, int off, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(src, off, len);
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        if (position + count > channel.size()) {
+            throw new EOFException("Read past the end of the disk image at " + position);
+        }
+        return channel.transferTo(position, count, target);
+    }
+
+    @Override
+    public ByteBuffer view(long position, int len) throws IOException {
+        byte[] copy = new byte[len];
+        read(position, copy, 0, len);
+        return ByteBuffer.wrap(copy).asReadOnlyBuffer();
+    }
+
+    @Override
+    public int readInt(long position) throws IOException {
+        byte[] raw = new byte[Integer.BYTES];
+        read(position, raw, 0, raw.length);
+        return ByteBuffer.wrap(raw).getInt();
+    }
+
+    @Override
+    public void writeInt(long position, int value) throws IOException {
+        write(position, ByteBuffer.allocate(Integer.BYTES).putInt(value).array(), 0, Integer.BYTES);
+    }
+
+    @Override
+    public long readLong(long position) throws IOException {
+        byte[] raw = new byte[Long.BYTES];
+        read(position, raw, 0, raw.length);
+        return ByteBuffer.wrap(raw).getLong();
+    }
+
+    @Override
+    public void writeLong(long position, long value) throws IOException {
+        write(position, ByteBuffer.allocate(Long.BYTES).putLong(value).array(), 0, Long.BYTES);
+    }
+
+    @Override
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        disk.close();
+    }
+}
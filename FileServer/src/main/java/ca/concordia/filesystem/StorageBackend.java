@@ -0,0 +1,59 @@
+package ca.concordia.filesystem;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Byte-addressed access to the disk image. Implementations must allow concurrent calls
+ * on disjoint ranges; FileSystemManager's locks keep overlapping ranges apart.
+ */
+public interface StorageBackend extends Closeable {
+
+    void read(long position, byte[] dst, int off, int len) throws IOException;
+
+    void write(long position, byte[] src, int off, int len) throws IOException;
+
+    int readInt(long position) throws IOException;
+
+    void writeInt(long position, int value) throws IOException;
+
+    long readLong(long position) throws IOException;
+
+    void writeLong(long position, long value) throws IOException;
+
+    /**
+     * Writes up to count bytes starting at position to target, without copying them through the
+     * Java heap where the operating system allows it (sendfile). Like FileChannel.transferTo it
+     * returns how many were written, which is fewer when a non-blocking target is full.
+     */
+    long transferTo(long position, long count, WritableByteChannel target) throws IOException;
+
+    /** The len bytes at position as a read-only buffer, sharing the image's memory where the backend can. */
+    ByteBuffer view(long position, int len) throws IOException;
+
+    /** Flushes every write so far to stable storage. */
+    void force() throws IOException;
+
+    long size() throws IOException;
+
+    /** Opens fileName with the implementation selected by kind. */
+    static StorageBackend open(String fileName, Kind kind) throws IOException {
+        switch (kind) {
+            case MAPPED:
+                return new MappedStorage(fileName);
+            case RANDOM_ACCESS:
+                return new RandomAccessStorage(fileName);
+            default:
+                throw new IllegalArgumentException("Unknown storage backend " + kind);
+        }
+    }
+
+    enum Kind {
+        /** FileChannel.map segments: block I/O is a memory copy, metadata updates are in-place puts. */
+        MAPPED,
+        /** Positional FileChannel reads and writes: one syscall per access, no address space needed. */
+        RANDOM_ACCESS
+    }
+}
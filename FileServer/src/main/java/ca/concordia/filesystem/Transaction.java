@@ -0,0 +1,96 @@
+package ca.concordia.filesystem;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The metadata writes of one operation, logged as a unit by MetadataJournal.
+ * Writes to adjacent ranges are merged, so the length and next fields of an
+ * extent record cost one log entry. Not thread-safe: a transaction belongs to one operation.
+ */
+public class Transaction {
+
+    private long[] positions = new long[4];
+    private int[] ends = new int[4]; // end of each write in data
+    private byte[] data = new byte[64];
+    private int count;
+    private int used;
+    private boolean afterData;
+
+    // Set by MetadataJournal under its lock
+    boolean done;
+    IOException failure;
+
+    public void write(long position, byte[] src, int off, int len) {
+        if (used + len > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, used + len));
+        }
+        boolean adjacent = count > 0 && positions[count - 1] + (ends[count - 1] - start(count - 1)) == position;
+        if (!adjacent) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            positions[count++] = position;
+        }
+        System.arraycopy(src, off, data, used, len);
+        used += len;
+        ends[count - 1] = used;
+    }
+
+    public void writeInt(long position, int value) {
+        byte[] raw = {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+        write(position, raw, 0, raw.length);
+    }
+
+    /**
+     * Marks the logged metadata as pointing at data blocks written by this operation,
+     * so the journal makes those blocks durable before the commit record.
+     */
+    public void orderAfterData() {
+        afterData = true;
+    }
+
+    boolean isOrderedAfterData() {
+        return afterData;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /** Size of this transaction's journal record. */
+    int recordSize() {
+        return MetadataJournal.RECORD_HEADER_SIZE + count * (Long.BYTES + Integer.BYTES) + used + Integer.BYTES;
+    }
+
+    // magic | epoch | record length | write count | (position, length, bytes)* | CRC32 of everything before it
+    void writeRecord(ByteBuffer into, long epoch) {
+        int begin = into.position();
+        into.putInt(MetadataJournal.RECORD_MAGIC);
+        into.putLong(epoch);
+        into.putInt(recordSize());
+        into.putInt(count);
+        for (int i = 0; i < count; i++) {
+            into.putLong(positions[i]);
+            into.putInt(ends[i] - start(i));
+            into.put(data, start(i), ends[i] - start(i));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(into.array(), begin, into.position() - begin);
+        into.putInt((int) crc.getValue());
+    }
+
+    /** Copies every write to its home location. */
+    void apply(StorageBackend storage) throws IOException {
+        for (int i = 0; i < count; i++) {
+            storage.write(positions[i], data, start(i), ends[i] - start(i));
+        }
+    }
+
+    private int start(int i) {
+        return i == 0 ? 0 : ends[i - 1];
+    }
+}
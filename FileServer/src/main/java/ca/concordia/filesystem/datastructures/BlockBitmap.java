@@ -0,0 +1,228 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Free-block bitmap packed into longs, one bit per block (1 = used).
+ * Keeps a running free count and a next-fit cursor so allocation costs
+ * O(blocks handed out + words skipped) instead of a scan of every block.
+ * Not thread-safe: callers hold the allocator lock.
+ */
+public class BlockBitmap {
+
+    private final long[] words;
+    private final int blockCount;
+    private int freeCount;
+    private int cursor; // next-fit: searches resume where the last allocation ended
+    private int dirtyLow = Integer.MAX_VALUE; // range of words changed since the last flush
+    private int dirtyHigh = -1;
+
+    public BlockBitmap(int blockCount) {
+        this.blockCount = blockCount;
+        this.words = new long[(blockCount + 63) >>> 6];
+        this.freeCount = blockCount;
+        // Bits past the last block are permanently used so searches never return them
+        int tail = blockCount & 63;
+        if (tail != 0) {
+            words[words.length - 1] = -1L << tail;
+        }
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getFreeCount() {
+        return freeCount;
+    }
+
+    public boolean isFree(int block) {
+        return (words[block >>> 6] & (1L << block)) == 0;
+    }
+
+    public void markUsed(int block) {
+        if (isFree(block)) {
+            words[block >>> 6] |= 1L << block;
+            freeCount--;
+            touch(block >>> 6);
+        }
+    }
+
+    public void markFree(int block) {
+        if (!isFree(block)) {
+            words[block >>> 6] &= ~(1L << block);
+            freeCount++;
+            touch(block >>> 6);
+        }
+    }
+
+    /** Claims one block with next-fit search, or returns -1 when the volume is full. */
+    public int allocate() {
+        if (freeCount == 0) {
+            return -1;
+        }
+        int block = nextFree(cursor);
+        if (block == -1) {
+            block = nextFree(0);
+        }
+        markUsed(block);
+        cursor = block + 1 == blockCount ? 0 : block + 1;
+        return block;
+    }
+
+    /**
+     * Claims count blocks into out[from..from+count). A single contiguous run is preferred so
+     * the file streams sequentially; otherwise runs are taken in order from the cursor.
+     * The caller must have checked getFreeCount() first.
+     */
+    public void allocate(int count, int[] out, int from) {
+        if (count > freeCount) {
+            throw new IllegalStateException("Not enough free blocks: need " + count + ", have " + freeCount);
+        }
+        int start = findRun(count);
+        if (start != -1) {
+            claimRun(start, count, out, from);
+            return;
+        }
+        while (count > 0) {
+            int runStart = nextFree(cursor);
+            if (runStart == -1) {
+                runStart = nextFree(0);
+            }
+            int runLength = Math.min(count, nextUsed(runStart) - runStart);
+            claimRun(runStart, runLength, out, from);
+            from += runLength;
+            count -= runLength;
+        }
+    }
+
+    /** Returns the first block of a free run of at least length blocks, searching from the cursor, or -1. */
+    public int findRun(int length) {
+        if (length == 0 || length > freeCount) {
+            return -1;
+        }
+        int start = searchRun(cursor, blockCount, length);
+        return start != -1 ? start : searchRun(0, cursor, length);
+    }
+
+    public int nextFree(int from) {
+        int w = from >>> 6;
+        if (w >= words.length) {
+            return -1;
+        }
+        long free = ~words[w] & (-1L << from);
+        while (free == 0) {
+            if (++w == words.length) {
+                return -1;
+            }
+            free = ~words[w];
+        }
+        int block = (w << 6) + Long.numberOfTrailingZeros(free);
+        return block < blockCount ? block : -1;
+    }
+
+    /** Returns the first used block at or after from, or blockCount when the rest is free. */
+    public int nextUsed(int from) {
+        int w = from >>> 6;
+        if (w >= words.length) {
+            return blockCount;
+        }
+        long used = words[w] & (-1L << from);
+        while (used == 0) {
+            if (++w == words.length) {
+                return blockCount;
+            }
+            used = words[w];
+        }
+        return Math.min(blockCount, (w << 6) + Long.numberOfTrailingZeros(used));
+    }
+
+    /** Serializes the words that changed since the last call; returns false if nothing changed. */
+    public boolean drainDirty(ByteBuffer into) {
+        if (dirtyHigh < dirtyLow) {
+            return false;
+        }
+        into.clear();
+        for (int w = dirtyLow; w <= dirtyHigh; w++) {
+            into.putLong(words[w]);
+        }
+        into.flip();
+        return true;
+    }
+
+    /** Byte offset, relative to the start of the bitmap, of the buffer returned by drainDirty. */
+    public int dirtyOffset() {
+        return dirtyLow * Long.BYTES;
+    }
+
+    public void clearDirty() {
+        dirtyLow = Integer.MAX_VALUE;
+        dirtyHigh = -1;
+    }
+
+    /** On-disk size of the bitmap in bytes. */
+    public int byteSize() {
+        return words.length * Long.BYTES;
+    }
+
+    public void writeTo(ByteBuffer into) {
+        for (long word : words) {
+            into.putLong(word);
+        }
+    }
+
+    /** Marks every block free, e.g. before rebuilding the bitmap from the file chains. */
+    public void reset() {
+        Arrays.fill(words, 0);
+        int tail = blockCount & 63;
+        if (tail != 0) {
+            words[words.length - 1] = -1L << tail;
+        }
+        freeCount = blockCount;
+        cursor = 0;
+        touch(0);
+        touch(words.length - 1);
+    }
+
+    public void readFrom(ByteBuffer from) {
+        for (int w = 0; w < words.length; w++) {
+            words[w] = from.getLong();
+        }
+        int tail = blockCount & 63;
+        if (tail != 0) {
+            words[words.length - 1] |= -1L << tail;
+        }
+        freeCount = 0;
+        for (long word : words) {
+            freeCount += Long.bitCount(~word);
+        }
+        cursor = 0;
+        clearDirty();
+    }
+
+    private int searchRun(int from, int limit, int length) {
+        int start = nextFree(from);
+        while (start != -1 && start < limit) {
+            int end = nextUsed(start);
+            if (end - start >= length) {
+                return start;
+            }
+            start = end < blockCount ? nextFree(end) : -1;
+        }
+        return -1;
+    }
+
+    private void claimRun(int start, int length, int[] out, int from) {
+        for (int i = 0; i < length; i++) {
+            markUsed(start + i);
+            out[from + i] = start + i;
+        }
+        cursor = start + length == blockCount ? 0 : start + length;
+    }
+
+    private void touch(int word) {
+        dirtyLow = Math.min(dirtyLow, word);
+        dirtyHigh = Math.max(dirtyHigh, word);
+    }
+}
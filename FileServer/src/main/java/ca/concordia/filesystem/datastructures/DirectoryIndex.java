@@ -0,0 +1,62 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory index of what each directory holds: a sorted map from name to entry slot per
+ * directory, rebuilt from the parent links of the FEntry table at mount. Finding, adding and
+ * removing a name cost O(log n) in the size of its directory, and a listing walks only the
+ * directory being listed, in name order. Not thread-safe: callers hold the namespace lock.
+ */
+public class DirectoryIndex {
+
+    private final NavigableMap<String, Integer> root = new TreeMap<>();
+    private final NavigableMap<String, Integer>[] directories; // per entry slot, null unless a directory
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public DirectoryIndex(int maxFiles) {
+        directories = new NavigableMap[maxFiles];
+    }
+
+    public void clear() {
+        root.clear();
+        Arrays.fill(directories, null);
+    }
+
+    /** Marks slot as an empty directory. */
+    public void addDirectory(int slot) {
+        directories[slot] = new TreeMap<>();
+    }
+
+    public void removeDirectory(int slot) {
+        directories[slot] = null;
+    }
+
+    public boolean isDirectory(int slot) {
+        return slot == FEntry.ROOT || directories[slot] != null;
+    }
+
+    public void add(int parent, String name, int slot) {
+        children(parent).put(name, slot);
+    }
+
+    public void remove(int parent, String name) {
+        children(parent).remove(name);
+    }
+
+    public boolean isEmpty(int directory) {
+        return children(directory).isEmpty();
+    }
+
+    /** The directory's names in order, mapped to their slots; a read-only view. */
+    public NavigableMap<String, Integer> list(int directory) {
+        return Collections.unmodifiableNavigableMap(children(directory));
+    }
+
+    private NavigableMap<String, Integer> children(int directory) {
+        return directory == FEntry.ROOT ? root : directories[directory];
+    }
+}
@@ -0,0 +1,129 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.util.Arrays;
+
+/**
+ * The blocks of one file as runs of contiguous blocks (extents), in file order.
+ * A sequentially written file is a single extent. Lookups binary-search the running
+ * block count, so finding the block behind a file position is O(log extents).
+ * Instances are immutable; writers build a new list and swap it in.
+ *
+ * On disk each extent is a record in the extent table slot of its first block:
+ * length (int), first block of the next extent (int, -1 ends the list). FEntry.firstBlock
+ * points at the first extent, and slots of blocks that start no extent are unused.
+ */
+public final class ExtentList {
+
+    public static final int RECORD_SIZE = 8;
+    public static final int NEXT_OFFSET = 4;
+    public static final ExtentList EMPTY = new ExtentList(new int[0], new int[0], 0);
+
+    private final int[] starts;
+    private final int[] ends; // blocks in extents 0..i, so extent i covers file blocks [ends[i-1], ends[i])
+    private final int count;
+
+    private ExtentList(int[] starts, int[] ends, int count) {
+        this.starts = starts;
+        this.ends = ends;
+        this.count = count;
+    }
+
+    public static ExtentList of(int start, int length) {
+        return new ExtentList(new int[]{start}, new int[]{length}, 1);
+    }
+
+    /** Builds a list from runs read back from disk, in file order. */
+    public static ExtentList of(int[] starts, int[] lengths, int count) {
+        int[] ends = new int[count];
+        int blocks = 0;
+        for (int i = 0; i < count; i++) {
+            blocks += lengths[i];
+            ends[i] = blocks;
+        }
+        return new ExtentList(Arrays.copyOf(starts, count), ends, count);
+    }
+
+    /** Number of extents. */
+    public int size() {
+        return count;
+    }
+
+    /** Number of blocks across all extents. */
+    public int blockCount() {
+        return count == 0 ? 0 : ends[count - 1];
+    }
+
+    public int start(int extent) {
+        return starts[extent];
+    }
+
+    public int length(int extent) {
+        return ends[extent] - firstFileBlock(extent);
+    }
+
+    /** First block of the following extent as stored on disk, or -1 for the last one. */
+    public int next(int extent) {
+        return extent + 1 < count ? starts[extent + 1] : -1;
+    }
+
+    /** Index, within the file, of the first block of the extent. */
+    public int firstFileBlock(int extent) {
+        return extent == 0 ? 0 : ends[extent - 1];
+    }
+
+    /** Index of the extent holding the file's fileBlock-th block. */
+    public int extentAt(int fileBlock) {
+        if (fileBlock < 0 || fileBlock >= blockCount()) {
+            throw new IndexOutOfBoundsException("Block " + fileBlock + " is past the end of the file.");
+        }
+        int found = Arrays.binarySearch(ends, 0, count, fileBlock);
+        return found >= 0 ? found + 1 : -found - 1;
+    }
+
+    /** Disk block holding the file's fileBlock-th block. */
+    public int blockAt(int fileBlock) {
+        int extent = extentAt(fileBlock);
+        return starts[extent] + fileBlock - firstFileBlock(extent);
+    }
+
+    /** The first blocks of the file, dropping the rest. */
+    public ExtentList truncate(int blocks) {
+        if (blocks >= blockCount()) {
+            return this;
+        }
+        if (blocks == 0) {
+            return EMPTY;
+        }
+        int extents = extentAt(blocks - 1) + 1;
+        int[] newEnds = Arrays.copyOf(ends, extents);
+        newEnds[extents - 1] = blocks;
+        return new ExtentList(Arrays.copyOf(starts, extents), newEnds, extents);
+    }
+
+    /** This list followed by blocks[from..from+length), merging runs of consecutive blocks. */
+    public ExtentList append(int[] blocks, int from, int length) {
+        if (length == 0) {
+            return this;
+        }
+        int[] newStarts = Arrays.copyOf(starts, count + length);
+        int[] newEnds = Arrays.copyOf(ends, count + length);
+        int n = count;
+        for (int i = from; i < from + length; i++) {
+            int end = n == 0 ? 0 : newEnds[n - 1];
+            if (n > 0 && newStarts[n - 1] + (end - (n == 1 ? 0 : newEnds[n - 2])) == blocks[i]) {
+                newEnds[n - 1] = end + 1;
+            } else {
+                newStarts[n] = blocks[i];
+                newEnds[n] = end + 1;
+                n++;
+            }
+        }
+        return new ExtentList(Arrays.copyOf(newStarts, n), Arrays.copyOf(newEnds, n), n);
+    }
+
+    /** True if extent i of this list is stored identically (start, length and next) as extent i of other. */
+    public boolean sameRecord(int extent, ExtentList other) {
+        return extent < other.count && starts[extent] == other.starts[extent]
+                && length(extent) == other.length(extent) && next(extent) == other.next(extent);
+    }
+}
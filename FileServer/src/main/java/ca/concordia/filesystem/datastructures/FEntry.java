@@ -1,18 +1,34 @@
 package ca.concordia.filesystem.datastructures;
 
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class FEntry {
 
-    private String filename;
-    private short filesize;
-    private short firstBlock; // Pointers to data blocks
+    // On-disk record: name length (byte, 0 for a free slot), flags (byte), 2 unused bytes, parent (int),
+    // filesize (long), firstBlock (int), name (up to NAME_SIZE bytes of UTF-8, the last path component)
+    public static final int NAME_SIZE = 236;
+    public static final int RECORD_SIZE = 256;
+    public static final int FLAGS_OFFSET = 1;
+    public static final int PARENT_OFFSET = 4;
+    public static final int SIZE_OFFSET = 8;
+    public static final int FIRST_BLOCK_OFFSET = 16;
+    public static final int NAME_OFFSET = 20;
 
-    public FEntry(String filename, short filesize, short firstblock) throws IllegalArgumentException{
-        //Check filename is max 11 bytes long
-        if (filename.length() > 11) {
-            throw new IllegalArgumentException("Filename cannot be longer than 11 characters.");
-        }
+    public static final int ROOT = -1; // Parent of the entries at the top of the tree
+    private static final int DIRECTORY = 1;
+
+    private String filename; // The full path in memory; only its last component is stored
+    private int parent = ROOT; // Slot of the directory holding this entry
+    private boolean directory;
+    private long filesize;
+    private int firstBlock; // Pointers to data blocks
+    private ExtentList extents = ExtentList.EMPTY; // Loaded from the extent table at mount
+    private volatile long generation; // In memory only: changes whenever the contents do
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true); // Guards this file's data and extents
+
+    public FEntry(String filename, long filesize, int firstblock) throws IllegalArgumentException{
         this.filename = filename;
         this.filesize = filesize;
         this.firstBlock = firstblock;
@@ -24,28 +40,101 @@ public class FEntry {
     }
 
     public void setFilename(String filename) {
-        if (filename.length() > 11) {
-            throw new IllegalArgumentException("Filename cannot be longer than 11 characters.");
-        }
         this.filename = filename;
     }
 
-    public short getFilesize() {
+    public int getParent() {
+        return parent;
+    }
+
+    public void setParent(int parent) {
+        this.parent = parent;
+    }
+
+    public boolean isDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(boolean directory) {
+        this.directory = directory;
+    }
+
+    public long getFilesize() {
         return filesize;
     }
 
-    public void setFilesize(short filesize) {
+    public void setFilesize(long filesize) {
         if (filesize < 0) {
             throw new IllegalArgumentException("Filesize cannot be negative.");
         }
         this.filesize = filesize;
     }
 
-    public short getFirstBlock() {
+    public int getFirstBlock() {
         return firstBlock;
     }
 
-    public void setFirstBlock(short firstBlock){
+    public void setFirstBlock(int firstBlock){
         this.firstBlock = firstBlock;
     }
+
+    public ExtentList getExtents() {
+        return extents;
+    }
+
+    public void setExtents(ExtentList extents) {
+        this.extents = extents;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    public ReentrantReadWriteLock getLock() {
+        return lock;
+    }
+
+    /** The last component of the path, as stored on disk. */
+    public String getName() {
+        return filename.substring(filename.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Writes the record up to the end of the name and returns how many bytes that is; the rest
+     * of the record is never read, so it need not be written.
+     */
+    public int writeTo(ByteBuffer into) {
+        int start = into.position();
+        byte[] raw = getName().getBytes(StandardCharsets.UTF_8);
+        if (raw.length > NAME_SIZE) {
+            throw new IllegalArgumentException("Filename cannot be longer than " + NAME_SIZE + " bytes.");
+        }
+        into.put((byte) raw.length);
+        into.put((byte) (directory ? DIRECTORY : 0));
+        into.putShort((short) 0);
+        into.putInt(parent);
+        into.putLong(filesize);
+        into.putInt(firstBlock);
+        into.put(raw);
+        into.position(start + RECORD_SIZE);
+        return NAME_OFFSET + raw.length;
+    }
+
+    /** Reads a record; the entry's filename is just its own name until the caller resolves the path. */
+    public static FEntry readFrom(ByteBuffer from) {
+        int start = from.position();
+        int nameLength = from.get(start) & 0xFF;
+        byte[] raw = new byte[Math.min(nameLength, NAME_SIZE)];
+        from.get(start + NAME_OFFSET, raw);
+        FEntry entry = new FEntry(new String(raw, StandardCharsets.UTF_8),
+                from.getLong(start + SIZE_OFFSET), from.getInt(start + FIRST_BLOCK_OFFSET));
+        entry.setParent(from.getInt(start + PARENT_OFFSET));
+        entry.setDirectory((from.get(start + FLAGS_OFFSET) & DIRECTORY) != 0);
+        from.position(start + RECORD_SIZE);
+        return entry;
+    }
 }
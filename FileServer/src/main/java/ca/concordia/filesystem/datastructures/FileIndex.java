@@ -0,0 +1,160 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * In-memory index from filename bytes to entry slot, plus a stack of free slots.
+ * Uses linear probing with backward-shift deletion, so there are no tombstones and
+ * lookups of ASCII names never allocate. Not thread-safe: callers hold the namespace lock.
+ */
+public class FileIndex {
+
+    private static final int EMPTY = -1;
+
+    private final int[] table; // entry slot per bucket, or EMPTY
+    private final int mask;
+    private final byte[][] names; // encoded name per entry slot, null when the slot is free
+    private final int[] hashes; // cached hash per entry slot
+    private final int[] freeSlots;
+    private int freeTop;
+
+    public FileIndex(int maxFiles) {
+        int capacity = Integer.highestOneBit(Math.max(2, maxFiles * 2 - 1)) << 1;
+        table = new int[capacity];
+        mask = capacity - 1;
+        names = new byte[maxFiles][];
+        hashes = new int[maxFiles];
+        freeSlots = new int[maxFiles];
+        clear();
+    }
+
+    /** Forgets every name. Follow with put() for each used slot and then rebuildFreeSlots(). */
+    public void clear() {
+        Arrays.fill(table, EMPTY);
+        Arrays.fill(names, null);
+        rebuildFreeSlots();
+    }
+
+    public void rebuildFreeSlots() {
+        freeTop = 0;
+        // Pushed in reverse so the lowest slot is handed out first
+        for (int i = names.length - 1; i >= 0; i--) {
+            if (names[i] == null) {
+                freeSlots[freeTop++] = i;
+            }
+        }
+    }
+
+    public int find(String name) {
+        int hash = hash(name);
+        if (hash == 0) {
+            return find(name.getBytes(StandardCharsets.UTF_8));
+        }
+        for (int bucket = hash & mask; table[bucket] != EMPTY; bucket = (bucket + 1) & mask) {
+            int slot = table[bucket];
+            if (hashes[slot] == hash && sameName(names[slot], name)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    public int find(byte[] name) {
+        return find(name, 0, name.length);
+    }
+
+    public int find(byte[] name, int off, int len) {
+        int hash = hash(name, off, len);
+        for (int bucket = hash & mask; table[bucket] != EMPTY; bucket = (bucket + 1) & mask) {
+            int slot = table[bucket];
+            if (hashes[slot] == hash && Arrays.equals(names[slot], 0, names[slot].length, name, off, off + len)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /** Pops a free slot, or returns -1 when every slot is in use. */
+    public int allocateSlot() {
+        return freeTop == 0 ? -1 : freeSlots[--freeTop];
+    }
+
+    /** Registers a name for a slot returned by allocateSlot, or for a used slot while loading. */
+    public void put(int slot, byte[] name) {
+        int hash = hash(name, 0, name.length);
+        names[slot] = name;
+        hashes[slot] = hash;
+        int bucket = hash & mask;
+        while (table[bucket] != EMPTY) {
+            bucket = (bucket + 1) & mask;
+        }
+        table[bucket] = slot;
+    }
+
+    public void remove(int slot) {
+        byte[] name = names[slot];
+        if (name == null) {
+            return;
+        }
+        int bucket = hashes[slot] & mask;
+        while (table[bucket] != slot) {
+            bucket = (bucket + 1) & mask;
+        }
+        // Backward-shift the rest of the probe run into the hole
+        int hole = bucket;
+        for (int next = (hole + 1) & mask; table[next] != EMPTY; next = (next + 1) & mask) {
+            int home = hashes[table[next]] & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                hole = next;
+            }
+        }
+        table[hole] = EMPTY;
+        names[slot] = null;
+        freeSlots[freeTop++] = slot;
+    }
+
+    public int size() {
+        return names.length - freeTop;
+    }
+
+    // FNV-1a over the UTF-8 bytes. Returns 0 for non-ASCII names so the caller encodes them first.
+    private static int hash(String name) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 0x80) {
+                return 0;
+            }
+            h = (h ^ c) * 0x01000193;
+        }
+        return finish(h);
+    }
+
+    private static int hash(byte[] name, int off, int len) {
+        int h = 0x811c9dc5;
+        for (int i = off; i < off + len; i++) {
+            h = (h ^ (name[i] & 0xff)) * 0x01000193;
+        }
+        return finish(h);
+    }
+
+    // Spreads the high bits into the bucket mask and keeps 0 free as the non-ASCII marker
+    private static int finish(int h) {
+        h ^= h >>> 16;
+        return h == 0 ? 1 : h;
+    }
+
+    private static boolean sameName(byte[] stored, String name) {
+        if (stored.length != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < stored.length; i++) {
+            if (stored[i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,140 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Volume header stored at offset 0 of the disk image. Holds the geometry chosen at
+ * format time and the offsets of every metadata region derived from it:
+ *
+ *   superblock | FEntry table | extent table | free bitmap | metadata journal | data blocks
+ *
+ * The data region starts on a block boundary. Version 4 made FEntry records directory entries
+ * with a parent link and longer names. Images of earlier versions cannot be mounted and must
+ * be reformatted.
+ */
+public class Superblock {
+
+    public static final int MAGIC = 0x46535331; // "FSS1"
+    public static final int VERSION = 4;
+    public static final int SIZE = 64;
+    public static final int MIN_BLOCK_SIZE = 128;
+    public static final int MAX_BLOCK_SIZE = 1 << 20;
+    public static final long DEFAULT_JOURNAL_SIZE = 1 << 20;
+
+    private final int blockSize;
+    private final int blockCount;
+    private final int maxFiles;
+    private final long entryTableOffset;
+    private final long extentTableOffset;
+    private final long bitmapOffset;
+    private final long journalOffset;
+    private final long journalSize;
+    private final long dataOffset;
+
+    public Superblock(int blockSize, int blockCount, int maxFiles) {
+        this(blockSize, blockCount, maxFiles, DEFAULT_JOURNAL_SIZE);
+    }
+
+    public Superblock(int blockSize, int blockCount, int maxFiles, long journalSize) {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("Block size must be a power of two between "
+                    + MIN_BLOCK_SIZE + " and " + MAX_BLOCK_SIZE + " bytes.");
+        }
+        if (blockCount <= 0) {
+            throw new IllegalArgumentException("Volume must hold at least one block.");
+        }
+        if (maxFiles <= 0) {
+            throw new IllegalArgumentException("Volume must allow at least one file.");
+        }
+        if (journalSize < 0) {
+            throw new IllegalArgumentException("Journal size cannot be negative.");
+        }
+        this.blockSize = blockSize;
+        this.blockCount = blockCount;
+        this.maxFiles = maxFiles;
+        this.entryTableOffset = SIZE;
+        this.extentTableOffset = entryTableOffset + (long) maxFiles * FEntry.RECORD_SIZE;
+        this.bitmapOffset = extentTableOffset + (long) blockCount * ExtentList.RECORD_SIZE;
+        this.journalOffset = bitmapOffset + (((long) blockCount + 63) >>> 6) * Long.BYTES;
+        this.journalSize = journalSize;
+        long journalEnd = journalOffset + journalSize;
+        this.dataOffset = (journalEnd + blockSize - 1) / blockSize * blockSize;
+    }
+
+    /** Geometry for a volume whose data region holds totalSize bytes. */
+    public static Superblock forVolume(long totalSize, int blockSize, int maxFiles) {
+        return forVolume(totalSize, blockSize, maxFiles, DEFAULT_JOURNAL_SIZE);
+    }
+
+    public static Superblock forVolume(long totalSize, int blockSize, int maxFiles, long journalSize) {
+        long blocks = totalSize / blockSize;
+        if (blocks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Volume cannot hold more than " + Integer.MAX_VALUE + " blocks.");
+        }
+        return new Superblock(blockSize, (int) blocks, maxFiles, journalSize);
+    }
+
+    public static Superblock readFrom(ByteBuffer from) throws IOException {
+        int magic = from.getInt();
+        int version = from.getInt();
+        if (magic != MAGIC) {
+            throw new IOException("Disk image is not formatted.");
+        }
+        if (version != VERSION) {
+            throw new IOException("Unsupported disk image version " + version + ".");
+        }
+        return new Superblock(from.getInt(), from.getInt(), from.getInt(), from.getLong());
+    }
+
+    public void writeTo(ByteBuffer into) {
+        into.putInt(MAGIC);
+        into.putInt(VERSION);
+        into.putInt(blockSize);
+        into.putInt(blockCount);
+        into.putInt(maxFiles);
+        into.putLong(journalSize);
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public int getMaxFiles() {
+        return maxFiles;
+    }
+
+    public long getEntryTableOffset() {
+        return entryTableOffset;
+    }
+
+    public long getExtentTableOffset() {
+        return extentTableOffset;
+    }
+
+    public long getBitmapOffset() {
+        return bitmapOffset;
+    }
+
+    public long getJournalOffset() {
+        return journalOffset;
+    }
+
+    /** Size of the journal region in bytes; 0 when the volume was formatted without one. */
+    public long getJournalSize() {
+        return journalSize;
+    }
+
+    public long getDataOffset() {
+        return dataOffset;
+    }
+
+    /** Total size of the disk image in bytes. */
+    public long getImageSize() {
+        return dataOffset + (long) blockCount * blockSize;
+    }
+}
@@ -0,0 +1,112 @@
+package ca.concordia.monitoring;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A leveled logger that never blocks the caller on console I/O: messages are queued and printed
+ * to System.err by a single daemon thread. When the queue is full new messages are dropped and
+ * counted, so a burst cannot slow requests down. The level comes from -Dlog.level and defaults
+ * to ERROR, which leaves per-request logging (DEBUG) and connection logging (INFO) off.
+ *
+ * Callers on hot paths check enabled() before building a message, so a disabled level costs a
+ * volatile read and nothing else.
+ */
+public final class Log {
+
+    public enum Level {
+        OFF, ERROR, WARN, INFO, DEBUG
+    }
+
+    private static final int QUEUE_SIZE = 8192;
+
+    private static volatile Level level = Level.valueOf(System.getProperty("log.level", "ERROR").toUpperCase());
+    private static final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private static final LongAdder dropped = new LongAdder();
+    private static Thread writer; // Started with the first message; guarded by Log.class
+
+    private Log() {
+    }
+
+    public static boolean enabled(Level messageLevel) {
+        return messageLevel != Level.OFF && messageLevel.ordinal() <= level.ordinal();
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    public static void error(String message, Throwable cause) {
+        if (enabled(Level.ERROR)) {
+            StringWriter trace = new StringWriter();
+            cause.printStackTrace(new PrintWriter(trace));
+            log(Level.ERROR, message + System.lineSeparator() + trace);
+        }
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    private static void log(Level messageLevel, String message) {
+        if (!enabled(messageLevel)) {
+            return;
+        }
+        String line = Instant.now() + " " + messageLevel + " [" + Thread.currentThread().getName() + "] " + message;
+        if (!queue.offer(line)) {
+            dropped.increment();
+        }
+        startWriter();
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        writer = new Thread(Log::drain, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // Prints whatever has queued up in one go, so a busy server costs one flush per batch
+    private static void drain() {
+        List<String> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            StringBuilder text = new StringBuilder();
+            for (String line : batch) {
+                text.append(line).append(System.lineSeparator());
+            }
+            long lost = dropped.sumThenReset();
+            if (lost > 0) {
+                text.append(lost).append(" log messages were dropped.").append(System.lineSeparator());
+            }
+            System.err.print(text);
+            System.err.flush();
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package ca.concordia.monitoring;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Process-wide counters and latency histograms, updated on the request path without locks and
+ * read through the STATS command or JMX. Like the file system itself there is one per JVM.
+ *
+ * Command latency runs from dispatch to the response being ready, so a transfer that talks to
+ * the client afterwards (UPLOAD, DOWNLOAD, a zero-copy READ) is counted up to that point. Lock
+ * waits are only recorded when a lock was actually contended; uncontended acquisitions cost a
+ * tryLock and are not timed.
+ */
+public final class Metrics implements MetricsMXBean {
+
+    private static final Metrics INSTANCE = new Metrics();
+    private static final String OBJECT_NAME = "ca.concordia:type=Metrics";
+
+    private final Map<String, CommandMetrics> commands = new ConcurrentHashMap<>();
+    private final LatencyHistogram lockWait = new LatencyHistogram();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final LongAdder totalConnections = new LongAdder();
+
+    private Metrics() {
+    }
+
+    public static Metrics get() {
+        return INSTANCE;
+    }
+
+    /** Makes the metrics visible to JMX clients such as jconsole; later calls do nothing. */
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException ignored) {
+            // Another server in this JVM registered it first
+        } catch (JMException e) {
+            Log.warn("Could not register the metrics MBean: " + e);
+        }
+    }
+
+    /** The counters for a command. Callers pass a fixed set of names, never raw client input. */
+    public CommandMetrics command(String name) {
+        CommandMetrics metrics = commands.get(name);
+        return metrics != null ? metrics : commands.computeIfAbsent(name, key -> new CommandMetrics());
+    }
+
+    public void lockWaited(long nanos) {
+        lockWait.record(nanos);
+    }
+
+    public void bytesIn(long count) {
+        bytesIn.add(count);
+    }
+
+    public void bytesOut(long count) {
+        bytesOut.add(count);
+    }
+
+    public void connectionOpened() {
+        activeConnections.incrementAndGet();
+        totalConnections.increment();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * Everything on one line of space-separated key=value pairs, latencies in microseconds:
+     * connections, traffic and lock waits first, then count, errors, p50, p99 and max per command.
+     */
+    public String summary() {
+        StringBuilder line = new StringBuilder()
+                .append("connections.active=").append(getActiveConnections())
+                .append(" connections.total=").append(getTotalConnections())
+                .append(" bytes.in=").append(getBytesIn())
+                .append(" bytes.out=").append(getBytesOut())
+                .append(" lockWait.count=").append(getLockWaits())
+                .append(" lockWait.p50us=").append(micros(lockWait.getPercentile(0.5)))
+                .append(" lockWait.p99us=").append(getLockWaitP99Micros())
+                .append(" lockWait.maxUs=").append(getLockWaitMaxMicros());
+        for (Map.Entry<String, CommandMetrics> entry : new TreeMap<>(commands).entrySet()) {
+            String name = entry.getKey();
+            CommandMetrics metrics = entry.getValue();
+            LatencyHistogram latency = metrics.getLatency();
+            line.append(' ').append(name).append(".count=").append(metrics.getCount())
+                    .append(' ').append(name).append(".errors=").append(metrics.getErrors())
+                    .append(' ').append(name).append(".p50us=").append(micros(latency.getPercentile(0.5)))
+                    .append(' ').append(name).append(".p99us=").append(micros(latency.getPercentile(0.99)))
+                    .append(' ').append(name).append(".maxUs=").append(micros(latency.getMax()));
+        }
+        return line.toString();
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return activeConnections.get();
+    }
+
+    @Override
+    public long getTotalConnections() {
+        return totalConnections.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getLockWaits() {
+        return lockWait.getCount();
+    }
+
+    @Override
+    public long getLockWaitP99Micros() {
+        return micros(lockWait.getPercentile(0.99));
+    }
+
+    @Override
+    public long getLockWaitMaxMicros() {
+        return micros(lockWait.getMax());
+    }
+
+    @Override
+    public Map<String, Long> getCommandCounts() {
+        return byCommand(CommandMetrics::getCount);
+    }
+
+    @Override
+    public Map<String, Long> getCommandErrors() {
+        return byCommand(CommandMetrics::getErrors);
+    }
+
+    @Override
+    public Map<String, Long> getCommandP50Micros() {
+        return byCommand(metrics -> micros(metrics.getLatency().getPercentile(0.5)));
+    }
+
+    @Override
+    public Map<String, Long> getCommandP99Micros() {
+        return byCommand(metrics -> micros(metrics.getLatency().getPercentile(0.99)));
+    }
+
+    @Override
+    public Map<String, Long> getCommandMaxMicros() {
+        return byCommand(metrics -> micros(metrics.getLatency().getMax()));
+    }
+
+    private Map<String, Long> byCommand(ToLongFunction<CommandMetrics> value) {
+        Map<String, Long> result = new TreeMap<>();
+        commands.forEach((name, metrics) -> result.put(name, value.applyAsLong(metrics)));
+        return result;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
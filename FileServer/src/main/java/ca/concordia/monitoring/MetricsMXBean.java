@@ -0,0 +1,34 @@
+package ca.concordia.monitoring;
+
+import java.util.Map;
+
+/**
+ * The JMX view of Metrics, registered as ca.concordia:type=Metrics. Latencies are in
+ * microseconds; the maps are keyed by command name.
+ */
+public interface MetricsMXBean {
+
+    int getActiveConnections();
+
+    long getTotalConnections();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getLockWaits();
+
+    long getLockWaitP99Micros();
+
+    long getLockWaitMaxMicros();
+
+    Map<String, Long> getCommandCounts();
+
+    Map<String, Long> getCommandErrors();
+
+    Map<String, Long> getCommandP50Micros();
+
+    Map<String, Long> getCommandP99Micros();
+
+    Map<String, Long> getCommandMaxMicros();
+}
@@ -0,0 +1,101 @@
+package ca.concordia.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Base64 between byte ranges, so a command's payload can be decoded where it lies in the line
+ * it arrived in and a READ encoded straight into its response. java.util.Base64 only works on
+ * whole arrays. Accepts exactly what Base64.getDecoder() accepts: the basic alphabet, padding
+ * optional but complete if present, and nothing after it.
+ */
+final class Base64Codec {
+
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+            .getBytes(StandardCharsets.US_ASCII);
+    private static final int[] VALUES = new int[256];
+
+    static {
+        Arrays.fill(VALUES, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = i;
+        }
+    }
+
+    private Base64Codec() {
+    }
+
+    /** The most bytes that len characters of Base64 can decode to. */
+    static int maxDecodedLength(int len) {
+        return len / 4 * 3 + 2;
+    }
+
+    static int encodedLength(int len) {
+        return 4 * ((len + 2) / 3);
+    }
+
+    /**
+     * Decodes src[off..off+len) into dst from dstOff, which must have room for
+     * maxDecodedLength(len) bytes, and returns how many were written.
+     *
+     * @throws IllegalArgumentException if the input is not valid Base64
+     */
+    static int decode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        int end = off + len;
+        int padding = 0;
+        while (padding < 2 && end > off && src[end - 1] == '=') {
+            end--;
+            padding++;
+        }
+        int tail = (end - off) % 4;
+        if (tail == 1 || (padding > 0 && tail + padding != 4)) {
+            throw new IllegalArgumentException("Invalid Base64 length or padding");
+        }
+        int in = off;
+        int out = dstOff;
+        for (int stop = end - tail; in < stop; in += 4) {
+            int bits = value(src[in]) << 18 | value(src[in + 1]) << 12 | value(src[in + 2]) << 6 | value(src[in + 3]);
+            dst[out++] = (byte) (bits >> 16);
+            dst[out++] = (byte) (bits >> 8);
+            dst[out++] = (byte) bits;
+        }
+        if (tail >= 2) {
+            int bits = value(src[in]) << 18 | value(src[in + 1]) << 12 | (tail == 3 ? value(src[in + 2]) << 6 : 0);
+            dst[out++] = (byte) (bits >> 16);
+            if (tail == 3) {
+                dst[out++] = (byte) (bits >> 8);
+            }
+        }
+        return out - dstOff;
+    }
+
+    /** Encodes src[off..off+len) with padding into dst from dstOff and returns how many bytes were written. */
+    static int encode(byte[] src, int off, int len, byte[] dst, int dstOff) {
+        int in = off;
+        int out = dstOff;
+        for (int stop = off + len / 3 * 3; in < stop; in += 3) {
+            int bits = (src[in] & 0xFF) << 16 | (src[in + 1] & 0xFF) << 8 | (src[in + 2] & 0xFF);
+            dst[out++] = ALPHABET[bits >>> 18];
+            dst[out++] = ALPHABET[(bits >>> 12) & 0x3F];
+            dst[out++] = ALPHABET[(bits >>> 6) & 0x3F];
+            dst[out++] = ALPHABET[bits & 0x3F];
+        }
+        int tail = off + len - in;
+        if (tail > 0) {
+            int bits = (src[in] & 0xFF) << 16 | (tail == 2 ? (src[in + 1] & 0xFF) << 8 : 0);
+            dst[out++] = ALPHABET[bits >>> 18];
+            dst[out++] = ALPHABET[(bits >>> 12) & 0x3F];
+            dst[out++] = tail == 2 ? ALPHABET[(bits >>> 6) & 0x3F] : (byte) '=';
+            dst[out++] = '=';
+        }
+        return out - dstOff;
+    }
+
+    private static int value(byte c) {
+        int value = VALUES[c & 0xFF];
+        if (value < 0) {
+            throw new IllegalArgumentException("Illegal Base64 character " + Integer.toHexString(c & 0xFF));
+        }
+        return value;
+    }
+}
@@ -0,0 +1,323 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.BatchOperation;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.monitoring.Log;
+import ca.concordia.monitoring.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Length-prefixed binary protocol, served on the same port as the text one. A client selects it
+ * by sending MAGIC and VERSION as its first two bytes; 0xFB never occurs in UTF-8, so it cannot be
+ * the start of a text command. Payloads travel as raw bytes: a WRITE goes from the frame it was
+ * read into straight to the file's blocks, and a READ is read into the array that is sent, or for
+ * large files sent from the disk image by the kernel without passing through the heap at all.
+ *
+ * Request:  int length | byte opcode | short nameLength | name (UTF-8) | arguments
+ *           The name is a path, as in a/b/c; LIST takes the directory to list, empty for the top.
+ *           READ_RANGE takes long offset, int length; WRITE_AT takes long offset, then the payload;
+ *           WRITE and APPEND take the payload, which runs to the end of the frame.
+ *           BATCH takes int count, then count CREATE, WRITE, APPEND or DELETE requests laid out
+ *           as above, which run together under FileSystemManager.batch.
+ * Response: int length | byte status (OK or ERROR) | body
+ *           READ and READ_RANGE return the bytes, LIST each name as short length + UTF-8,
+ *           BATCH returns one response per request, laid out as above, in order; STATS
+ *           returns the same line as the text command;
+ *           everything else a UTF-8 message.
+ * Integers are big-endian, and length counts the bytes that follow it. A response body holds
+ * at most MAX_BODY bytes: READ_RANGE returns no more than that, and a READ of a larger file is
+ * an ERROR rather than the start of the file.
+ */
+final class BinaryProtocol {
+
+    static final int MAGIC = 0xFB;
+    static final int VERSION = 1;
+    static final int MAX_FRAME = 64 * 1024 * 1024;
+    static final int HEADER_SIZE = 5; // Response length and status
+    static final int MAX_BODY = MAX_FRAME - 1; // The status counts towards a response's frame
+
+    static final byte CREATE = 1;
+    static final byte LIST = 2;
+    static final byte WRITE = 3;
+    static final byte APPEND = 4;
+    static final byte READ = 5;
+    static final byte DELETE = 6;
+    static final byte READ_RANGE = 7;
+    static final byte WRITE_AT = 8;
+    static final byte QUIT = 9;
+    static final byte BATCH = 10;
+    static final byte STATS = 11;
+    static final byte MKDIR = 12;
+    static final byte RMDIR = 13;
+
+    // Metric names by opcode, shared with the text protocol's where the commands match
+    private static final String[] METRICS = {"UNKNOWN", "CREATE", "LIST", "WRITE", "APPEND", "READ", "DELETE",
+            "READ_RANGE", "WRITE_AT", "QUIT", "BATCH", "STATS", "MKDIR", "RMDIR"};
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    private final FileSystemManager fsManager;
+    private final ResponseCache responseCache; // Only invalidated: binary READs need no encoding to cache
+    private final long zeroCopyMinBytes;
+
+    BinaryProtocol(FileSystemManager fsManager, ResponseCache responseCache, long zeroCopyMinBytes) {
+        this.fsManager = fsManager;
+        this.responseCache = responseCache;
+        this.zeroCopyMinBytes = zeroCopyMinBytes;
+    }
+
+    /**
+     * Executes the request in frame[off..off+len), the bytes after its length prefix, and adds
+     * the response frame to out. Returns false once the client has asked to disconnect.
+     */
+    boolean execute(String client, byte[] frame, int off, int len, Response out) {
+        ByteBuffer request = ByteBuffer.wrap(frame, off, len);
+        byte opcode = 0;
+        boolean failed = false;
+        long start = System.nanoTime();
+        try {
+            opcode = request.get();
+            byte[] rawName = new byte[request.getShort() & 0xFFFF];
+            request.get(rawName);
+            String name = new String(rawName, StandardCharsets.UTF_8);
+            if (Log.enabled(Log.Level.DEBUG)) {
+                Log.debug("[" + client + "] binary op " + opcode + " " + name);
+            }
+
+            switch (opcode) {
+                case CREATE:
+                    fsManager.createFile(name);
+                    out.write(message(OK, "File '" + name + "' created."));
+                    break;
+                case LIST:
+                    out.write(list(fsManager.listDirectory(name)));
+                    break;
+                case WRITE:
+                    fsManager.writeFile(name, frame, request.position(), request.remaining());
+                    invalidate(name);
+                    out.write(message(OK, "Wrote " + request.remaining() + " bytes to '" + name + "'."));
+                    break;
+                case WRITE_AT:
+                    long at = request.getLong();
+                    fsManager.writeFile(name, at, frame, request.position(), request.remaining());
+                    invalidate(name);
+                    out.write(message(OK, "Wrote " + request.remaining() + " bytes to '" + name + "'."));
+                    break;
+                case APPEND:
+                    fsManager.appendFile(name, frame, request.position(), request.remaining());
+                    invalidate(name);
+                    out.write(message(OK, "Appended " + request.remaining() + " bytes to '" + name + "'."));
+                    break;
+                case READ:
+                    readWhole(name, out);
+                    break;
+                case READ_RANGE:
+                    long offset = request.getLong();
+                    int length = request.getInt();
+                    if (offset < 0 || length < 0) {
+                        throw new Exception("Offset and length cannot be negative.");
+                    }
+                    read(name, offset, Math.min(length, MAX_BODY), out);
+                    break;
+                case DELETE:
+                    fsManager.deleteFile(name);
+                    invalidate(name);
+                    out.write(message(OK, "File '" + name + "' deleted."));
+                    break;
+                case MKDIR:
+                    fsManager.createDirectory(name);
+                    out.write(message(OK, "Directory '" + name + "' created."));
+                    break;
+                case RMDIR:
+                    fsManager.deleteDirectory(name);
+                    out.write(message(OK, "Directory '" + name + "' deleted."));
+                    break;
+                case BATCH:
+                    out.write(batch(frame, request));
+                    break;
+                case STATS:
+                    out.write(message(OK, Metrics.get().summary()));
+                    break;
+                case QUIT:
+                    out.write(message(OK, "Disconnecting."));
+                    return false;
+                default:
+                    out.write(message(ERROR, "Unknown opcode " + opcode + "."));
+            }
+        } catch (RuntimeException e) {
+            // Buffer underflows and bad arguments: the frame did not match its opcode
+            failed = true;
+            out.write(message(ERROR, "Malformed request: " + e.getMessage()));
+        } catch (Exception e) {
+            failed = true;
+            out.write(message(ERROR, e.getMessage()));
+        } finally {
+            String metric = opcode > 0 && opcode < METRICS.length ? METRICS[opcode] : METRICS[0];
+            Metrics.get().command(metric).record(System.nanoTime() - start, failed);
+        }
+        return true;
+    }
+
+    // The whole file or an error, never the start of it; a file too large for one frame is read with READ_RANGE
+    private void readWhole(String name, Response out) throws Exception {
+        long size = fsManager.getFileSize(name);
+        if (size > MAX_BODY) {
+            throw new Exception(tooLarge(name));
+        }
+        if (size < zeroCopyMinBytes) {
+            byte[] frame = fsManager.readFile(name, HEADER_SIZE);
+            if (frame.length - HEADER_SIZE > MAX_BODY) {
+                throw new Exception(tooLarge(name)); // Grew since the size check
+            }
+            out.write(header(frame, OK));
+            return;
+        }
+        // One byte more than fits, so that sendFile sees a file that has grown since and refuses it
+        out.transfer(connection -> sendFile(name, 0, MAX_BODY + 1, connection.channel()));
+    }
+
+    private void read(String name, long offset, int length, Response out) throws Exception {
+        if (fsManager.getFileSize(name) - offset < zeroCopyMinBytes) {
+            out.write(header(fsManager.readFile(name, offset, length, HEADER_SIZE), OK));
+            return;
+        }
+        out.transfer(connection -> sendFile(name, offset, length, connection.channel()));
+    }
+
+    private static String tooLarge(String name) {
+        return "File '" + name + "' is larger than " + MAX_BODY + " bytes; use READ_RANGE.";
+    }
+
+    // Looked up again under the file's lock: it may have changed or gone since the size check
+    private void sendFile(String name, long offset, int length, GatheringByteChannel channel) throws IOException {
+        try {
+            long sent = fsManager.transferFile(name, offset, length, count -> {
+                if (count > MAX_BODY) {
+                    throw new IllegalStateException(tooLarge(name));
+                }
+                return ByteBuffer.allocate(HEADER_SIZE).putInt((int) count + 1).put(OK).flip();
+            }, channel);
+            // Bypasses the connection's streams, so it is counted here
+            Metrics.get().bytesOut(HEADER_SIZE + sent);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            // Nothing has been written yet, so the client can still get an error frame instead
+            ByteBuffer error = ByteBuffer.wrap(message(ERROR, e.getMessage()));
+            while (error.hasRemaining()) {
+                channel.write(error);
+            }
+        }
+    }
+
+    // Payloads are used where they lie in the frame, like a single WRITE's
+    private byte[] batch(byte[] frame, ByteBuffer request) throws Exception {
+        int count = request.getInt();
+        if (count < 1 || count > CommandHandler.MAX_BATCH) {
+            throw new Exception("A batch holds 1 to " + CommandHandler.MAX_BATCH + " requests.");
+        }
+        byte[][] replies = new byte[count][]; // Set up front for requests that never reach the batch
+        String[] successes = new String[count];
+        List<BatchOperation> ops = new ArrayList<>();
+        int[] positions = new int[count];
+        for (int i = 0; i < count; i++) {
+            int length = request.getInt();
+            ByteBuffer sub = request.slice().limit(length);
+            request.position(request.position() + length);
+            byte opcode = sub.get();
+            byte[] rawName = new byte[sub.getShort() & 0xFFFF];
+            sub.get(rawName);
+            String name = new String(rawName, StandardCharsets.UTF_8);
+            int payload = request.position() - length + sub.position();
+            positions[i] = ops.size();
+            switch (opcode) {
+                case CREATE:
+                    ops.add(BatchOperation.create(name));
+                    successes[i] = "File '" + name + "' created.";
+                    break;
+                case WRITE:
+                    ops.add(BatchOperation.write(name, frame, payload, sub.remaining()));
+                    successes[i] = "Wrote " + sub.remaining() + " bytes to '" + name + "'.";
+                    break;
+                case APPEND:
+                    ops.add(BatchOperation.append(name, frame, payload, sub.remaining()));
+                    successes[i] = "Appended " + sub.remaining() + " bytes to '" + name + "'.";
+                    break;
+                case DELETE:
+                    ops.add(BatchOperation.delete(name));
+                    successes[i] = "File '" + name + "' deleted.";
+                    break;
+                default:
+                    positions[i] = -1;
+                    replies[i] = message(ERROR, "A batch only takes CREATE, WRITE, APPEND and DELETE.");
+            }
+        }
+
+        Exception[] failures = fsManager.batch(ops);
+        for (BatchOperation op : ops) {
+            if (op.getKind() != BatchOperation.Kind.CREATE) {
+                invalidate(op.getFileName());
+            }
+        }
+        int size = HEADER_SIZE;
+        for (int i = 0; i < count; i++) {
+            if (replies[i] == null) {
+                Exception failure = failures[positions[i]];
+                replies[i] = failure == null ? message(OK, successes[i]) : message(ERROR, failure.getMessage());
+            }
+            size += replies[i].length;
+        }
+        ByteBuffer response = ByteBuffer.allocate(size).position(HEADER_SIZE);
+        for (byte[] reply : replies) {
+            response.put(reply);
+        }
+        return header(response.array(), OK);
+    }
+
+    /** A response holding just an ERROR frame, for failures outside any one request. */
+    static Response error(String text) {
+        Response response = new Response();
+        response.write(message(ERROR, text));
+        return response;
+    }
+
+    static byte[] message(byte status, String text) {
+        byte[] body = String.valueOf(text).getBytes(StandardCharsets.UTF_8);
+        byte[] frame = new byte[HEADER_SIZE + body.length];
+        System.arraycopy(body, 0, frame, HEADER_SIZE, body.length);
+        return header(frame, status);
+    }
+
+    private static byte[] list(String[] names) {
+        byte[][] encoded = new byte[names.length][];
+        int size = HEADER_SIZE;
+        for (int i = 0; i < names.length; i++) {
+            encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            size += 2 + encoded[i].length;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(size).position(HEADER_SIZE);
+        for (byte[] name : encoded) {
+            frame.putShort((short) name.length).put(name);
+        }
+        return header(frame.array(), OK);
+    }
+
+    // Fills in the first HEADER_SIZE bytes, which the body was laid out behind
+    private static byte[] header(byte[] frame, byte status) {
+        ByteBuffer.wrap(frame).putInt(frame.length - 4).put(status);
+        return frame;
+    }
+
+    private void invalidate(String name) {
+        if (responseCache != null) {
+            responseCache.invalidate(name);
+        }
+    }
+}
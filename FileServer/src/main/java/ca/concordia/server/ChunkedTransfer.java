@@ -0,0 +1,201 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.FileSystemManager;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * The text protocol's chunked commands, for files too large to send as a single line:
+ *
+ *   UPLOAD name     followed by lines of Base64, one chunk each, and an empty line. Replaces the
+ *                   file and is answered with one line once the empty line has been read.
+ *   DOWNLOAD name   answered with lines of Base64 of at most CHUNK_BYTES each and an empty line,
+ *                   or with a single ERROR line.
+ *
+ * Chunks go to and from the file as they arrive, through FileSystemManager's streaming methods,
+ * so a transfer holds about one chunk in memory at each end however large the file is.
+ */
+final class ChunkedTransfer {
+
+    static final int CHUNK_BYTES = 48 * 1024; // 64 KB of Base64 per line
+
+    private static final byte[] SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private ChunkedTransfer() {
+    }
+
+    /** Reads the chunks that follow an UPLOAD into the file and answers it. filename is null if the command had none. */
+    static void upload(FileSystemManager fsManager, String filename, StreamingConnection connection) throws IOException {
+        ChunkInput chunks = new ChunkInput(connection);
+        String reply;
+        try {
+            if (filename == null) {
+                reply = "ERROR: missing filename";
+            } else {
+                long size = fsManager.writeFile(filename, chunks);
+                reply = "SUCCESS: Wrote " + size + " bytes to '" + filename + "'.";
+            }
+        } catch (IOException e) {
+            if (!chunks.malformed) {
+                throw e;
+            }
+            reply = "ERROR: invalid base64 payload";
+        } catch (Exception e) {
+            reply = "ERROR: " + e.getMessage();
+        }
+        // Whatever the outcome, the rest of the upload must not be taken for commands
+        chunks.skipRemaining();
+        writeLine(connection.output(), reply.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Sends the file as chunk lines and the closing empty line. */
+    static void download(FileSystemManager fsManager, String filename, StreamingConnection connection) throws IOException {
+        ChunkOutput lines = new ChunkOutput(connection.output());
+        try {
+            fsManager.readFile(filename, lines);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            // Lookup failures come before the first chunk, so the client still gets a single line
+            writeLine(connection.output(), ("ERROR: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        lines.finish();
+    }
+
+    private static void writeLine(OutputStream out, byte[] line) throws IOException {
+        byte[] bytes = new byte[line.length + SEPARATOR.length];
+        System.arraycopy(line, 0, bytes, 0, line.length);
+        System.arraycopy(SEPARATOR, 0, bytes, line.length, SEPARATOR.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    // Decodes one chunk line at a time; ends at the empty line
+    private static final class ChunkInput extends InputStream {
+
+        private final StreamingConnection connection;
+        private byte[] chunk = new byte[0];
+        private int position;
+        private boolean ended;
+        boolean malformed;
+
+        ChunkInput(StreamingConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (position == chunk.length) {
+                if (!nextChunk()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        private boolean nextChunk() throws IOException {
+            String line = nextLine();
+            if (line == null) {
+                return false;
+            }
+            try {
+                chunk = Base64.getDecoder().decode(line);
+                position = 0;
+                return true;
+            } catch (IllegalArgumentException e) {
+                malformed = true;
+                throw new IOException("invalid base64 chunk");
+            }
+        }
+
+        void skipRemaining() throws IOException {
+            while (nextLine() != null) {
+                // Discarded
+            }
+        }
+
+        // The next chunk's text, or null once the empty line has been read
+        private String nextLine() throws IOException {
+            if (ended) {
+                return null;
+            }
+            String line = connection.readLine();
+            if (line == null) {
+                throw new EOFException("The client disconnected during an upload.");
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                ended = true;
+                return null;
+            }
+            return line;
+        }
+    }
+
+    // Collects CHUNK_BYTES and sends them as one encoded line in a single write
+    private static final class ChunkOutput extends OutputStream {
+
+        private final OutputStream out;
+        private final byte[] chunk = new byte[CHUNK_BYTES];
+        private final byte[] line = new byte[4 * CHUNK_BYTES / 3 + SEPARATOR.length];
+        private int count;
+
+        ChunkOutput(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, chunk.length - count);
+                System.arraycopy(b, off, chunk, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == chunk.length) {
+                    sendChunk();
+                }
+            }
+        }
+
+        void finish() throws IOException {
+            if (count > 0) {
+                sendChunk();
+            }
+            out.write(SEPARATOR);
+            out.flush();
+        }
+
+        private void sendChunk() throws IOException {
+            // Only the last chunk of a file is short, so the copy happens at most once per transfer
+            int encoded = Base64.getEncoder().encode(count == chunk.length ? chunk : Arrays.copyOf(chunk, count), line);
+            System.arraycopy(SEPARATOR, 0, line, encoded, SEPARATOR.length);
+            out.write(line, 0, encoded + SEPARATOR.length);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,568 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.BatchOperation;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.monitoring.Log;
+import ca.concordia.monitoring.Metrics;
+import ca.concordia.server.CommandParser.Command;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Runs the commands of the text protocol against the file system. Every server mode frames
+ * lines its own way and hands them here one at a time, so all of them speak the same protocol.
+ * Stateless apart from the shared caches, so one instance serves every connection.
+ *
+ * Lines are parsed where they lie in the reader's buffer, payloads are decoded into a buffer
+ * kept by the thread and replies are put together from byte templates, so a CREATE, WRITE,
+ * APPEND, DELETE or ranged READ allocates little beyond the filename's String.
+ */
+class CommandHandler {
+
+    static final int MAX_BATCH = 10_000; // Commands in one BATCH, in either protocol
+    static final int MAX_POOLED = 128 * 1024; // Largest payload buffer a thread keeps between commands
+    static final int MAX_LIST = 10_000; // Paths in one LIST page, and the default limit
+    static final int LIST_CHUNK = 256; // Paths read under one hold of the namespace lock
+
+    private static final byte[] FILE = ascii("SUCCESS: File '");
+    private static final byte[] DIRECTORY = ascii("SUCCESS: Directory '");
+    private static final byte[] CREATED = ascii("' created.");
+    private static final byte[] DELETED = ascii("' deleted.");
+    private static final byte[] WROTE = ascii("SUCCESS: Wrote ");
+    private static final byte[] APPENDED = ascii("SUCCESS: Appended ");
+    private static final byte[] BYTES_TO = ascii(" bytes to '");
+    private static final byte[] QUOTE_END = ascii("'.");
+    private static final byte[] NEXT = ascii("NEXT ");
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final FileSystemManager fsManager;
+    private final ResponseCache responseCache; // null if disabled
+
+    CommandHandler(FileSystemManager fsManager, ResponseCache responseCache) {
+        this.fsManager = fsManager;
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Executes the command line in line[off..off+len), without its terminator, from client and
+     * adds its response to out. The bytes are only read during the call. Returns false once the
+     * client has asked to disconnect.
+     */
+    boolean execute(String client, byte[] line, int off, int len, Response out) {
+        CommandParser parser = SCRATCH.get().parser;
+        if (!parser.parse(line, off, len)) {
+            out.println("ERROR: Unknown command.");
+            return true;
+        }
+
+        if (Log.enabled(Log.Level.DEBUG)) {
+            Log.debug("[" + client + "] " + new String(line, off, len, StandardCharsets.UTF_8).trim());
+        }
+        Command command = parser.command(); // Unknown commands share one metric, so clients cannot grow the metrics
+        boolean failed = false;
+        long start = System.nanoTime();
+
+        try {
+            switch (command) {
+                case CREATE:
+                    handleCreate(parser, out);
+                    break;
+                case LIST:
+                    handleList(parser, out);
+                    break;
+                case WRITE:
+                    handleWrite(parser, out);
+                    break;
+                case APPEND:
+                    handleAppend(parser, out);
+                    break;
+                case READ:
+                    handleRead(parser, out);
+                    break;
+                case BATCH:
+                    handleBatch(parser, out);
+                    break;
+                case UPLOAD:
+                    handleUpload(parser, out);
+                    break;
+                case DOWNLOAD:
+                    handleDownload(parser, out);
+                    break;
+                case DELETE:
+                    handleDelete(parser, out);
+                    break;
+                case MKDIR:
+                    handleMkdir(parser, out);
+                    break;
+                case RMDIR:
+                    handleRmdir(parser, out);
+                    break;
+                case STATS:
+                    out.println(Metrics.get().summary());
+                    break;
+                case QUIT:
+                    out.println("SUCCESS: Disconnecting.");
+                    return false;
+                default:
+                    out.println("ERROR: Unknown command.");
+            }
+        } catch (Exception e) {
+            failed = true;
+            out.println("ERROR: " + e.getMessage());
+        } finally {
+            Metrics.get().command(command.name()).record(System.nanoTime() - start, failed);
+        }
+        return true;
+    }
+
+    private void handleCreate(CommandParser parser, Response out) throws Exception {
+        if (parser.tokens() < 2) {
+            out.println("ERROR: missing filename");
+            return;
+        }
+        fsManager.createFile(parser.name());
+        reply(out, FILE, parser, CREATED);
+    }
+
+    // LIST [prefix] [cursor] [limit]: the paths starting with prefix, one per line, then NEXT and a
+    // cursor if the limit cut the page short, then an empty line
+    private void handleList(CommandParser parser, Response out) throws Exception {
+        String prefix = parser.tokens() < 2 ? "" : parser.name();
+        if (prefix.startsWith("/")) {
+            prefix = prefix.substring(1);
+        }
+        String after = null;
+        long limit = MAX_LIST;
+        if (parser.tokens() == 3) {
+            byte[] line = parser.line();
+            int end = parser.restEnd();
+            int cursorEnd = CommandParser.nextSpace(line, parser.restStart(), end);
+            after = decodeCursor(line, parser.restStart(), cursorEnd);
+            if (cursorEnd < end) {
+                int limitStart = CommandParser.skipSpaces(line, cursorEnd, end);
+                if (CommandParser.nextSpace(line, limitStart, end) < end) {
+                    out.println("ERROR: expected LIST [<prefix>] [<cursor>] [<limit>]");
+                    return;
+                }
+                limit = CommandParser.parseNumber(line, limitStart, end, "limit");
+                if (limit < 1 || limit > MAX_LIST) {
+                    throw new Exception("invalid limit '" + limit + "'");
+                }
+            }
+        }
+
+        int want = (int) Math.min(limit, LIST_CHUNK);
+        String[] names = fsManager.listDirectory(prefix, after, want + 1);
+        printNames(out, names, want);
+        if (names.length > want && limit > want) {
+            // Longer than a chunk: the rest is read and sent a chunk at a time, after this one
+            String listed = prefix;
+            String last = names[want - 1];
+            int remaining = (int) limit - want;
+            out.transfer(connection -> streamList(listed, last, remaining, connection));
+            return;
+        }
+        if (names.length > want) {
+            printNext(out, names[want - 1]);
+        }
+        out.println();
+    }
+
+    // Holds the namespace lock only while each chunk is read, never while it is sent
+    private void streamList(String prefix, String after, int remaining, StreamingConnection connection) throws IOException {
+        Response chunk = new Response();
+        try {
+            while (true) {
+                int want = Math.min(remaining, LIST_CHUNK);
+                String[] names = fsManager.listDirectory(prefix, after, want + 1);
+                printNames(chunk, names, want);
+                if (names.length <= want) {
+                    break;
+                }
+                after = names[want - 1];
+                remaining -= want;
+                if (remaining == 0) {
+                    printNext(chunk, after);
+                    break;
+                }
+                chunk.writeTo(connection.output());
+                chunk.reset();
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            // Such as the directory being removed part-way; the client still gets the empty line
+            chunk.println("ERROR: " + e.getMessage());
+        }
+        chunk.println();
+        chunk.writeTo(connection.output());
+    }
+
+    private static void printNames(Response out, String[] names, int max) {
+        for (int i = 0; i < Math.min(names.length, max); i++) {
+            out.println(names[i]);
+        }
+    }
+
+    // The cursor is the last path sent, in URL-safe Base64 so that it is one token whatever the path holds
+    private static void printNext(Response out, String last) {
+        out.print(NEXT);
+        out.println(Base64.getUrlEncoder().withoutPadding().encodeToString(last.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String decodeCursor(byte[] line, int start, int end) throws Exception {
+        if (end - start == 1 && line[start] == '-') {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(Arrays.copyOfRange(line, start, end)), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new Exception("invalid cursor '" + new String(line, start, end - start, StandardCharsets.UTF_8) + "'");
+        }
+    }
+
+    private void handleWrite(CommandParser parser, Response out) throws Exception {
+        if (parser.tokens() < 3) {
+            out.println("ERROR: missing payload");
+            return;
+        }
+        // WRITE name payload replaces the file; WRITE name offset payload patches it in place
+        byte[] line = parser.line();
+        int start = parser.restStart();
+        int end = parser.restEnd();
+        long offset = -1;
+        int space = CommandParser.nextSpace(line, start, end);
+        if (space < end) {
+            offset = CommandParser.parseNumber(line, start, space, "offset");
+            start = CommandParser.skipSpaces(line, space, end);
+        }
+        String filename = parser.name();
+
+        byte[] payload = payloadBuffer(Base64Codec.maxDecodedLength(end - start));
+        int length;
+        try {
+            length = Base64Codec.decode(line, start, end - start, payload, 0);
+        } catch (IllegalArgumentException ex) {
+            out.println("ERROR: invalid base64 payload");
+            return;
+        }
+        if (offset == -1) {
+            fsManager.writeFile(filename, payload, 0, length);
+        } else {
+            fsManager.writeFile(filename, offset, payload, 0, length);
+        }
+        invalidate(filename);
+        reply(out, WROTE, length, parser);
+    }
+
+    private void handleAppend(CommandParser parser, Response out) throws Exception {
+        if (parser.tokens() < 3) {
+            out.println("ERROR: missing payload");
+            return;
+        }
+        String filename = parser.name();
+        int length = parser.restEnd() - parser.restStart();
+
+        byte[] payload = payloadBuffer(Base64Codec.maxDecodedLength(length));
+        try {
+            length = Base64Codec.decode(parser.line(), parser.restStart(), length, payload, 0);
+        } catch (IllegalArgumentException ex) {
+            out.println("ERROR: invalid base64 payload");
+            return;
+        }
+        fsManager.appendFile(filename, payload, 0, length);
+        invalidate(filename);
+        reply(out, APPENDED, length, parser);
+    }
+
+    private void handleRead(CommandParser parser, Response out) throws Exception {
+        if (parser.tokens() < 2) {
+            out.println("ERROR: missing filename");
+            return;
+        }
+        String filename = parser.name();
+        if (parser.tokens() == 3) {
+            // READ name offset length returns just that slice
+            byte[] line = parser.line();
+            int end = parser.restEnd();
+            int space = CommandParser.nextSpace(line, parser.restStart(), end);
+            int second = CommandParser.skipSpaces(line, space, end);
+            if (space == end || CommandParser.nextSpace(line, second, end) < end) {
+                out.println("ERROR: expected READ <filename> [<offset> <length>]");
+                return;
+            }
+            long offset = CommandParser.parseNumber(line, parser.restStart(), space, "offset");
+            int length = (int) Math.min(CommandParser.parseNumber(line, second, end, "length"), Integer.MAX_VALUE - 8);
+            if (length <= MAX_POOLED) {
+                byte[] data = payloadBuffer(length);
+                out.printBase64(data, 0, fsManager.readFile(filename, offset, data, 0, length));
+            } else {
+                byte[] data = fsManager.readFile(filename, offset, length);
+                out.printBase64(data, 0, data.length);
+            }
+        } else if (responseCache != null) {
+            handleCachedRead(filename, out);
+            return;
+        } else {
+            byte[] data = fsManager.readFile(filename);
+            out.printBase64(data, 0, data.length);
+        }
+        out.println();
+    }
+
+    // BATCH n is followed by n CREATE, WRITE, APPEND or DELETE lines, run together by
+    // FileSystemManager.batch and answered with one line each once all of them are done
+    private void handleBatch(CommandParser parser, Response out) throws Exception {
+        if (parser.tokens() != 2) {
+            out.println("ERROR: expected BATCH <count>");
+            return;
+        }
+        long count = CommandParser.parseNumber(parser.line(), parser.nameStart(), parser.nameEnd(), "count");
+        if (count < 1 || count > MAX_BATCH) {
+            out.println("ERROR: a batch holds 1 to " + MAX_BATCH + " commands");
+            return;
+        }
+        out.transfer(connection -> {
+            List<byte[]> lines = new ArrayList<>();
+            while (lines.size() < count) {
+                byte[] line = connection.readLineBytes();
+                if (line == null) {
+                    throw new EOFException("The client disconnected during a batch.");
+                }
+                lines.add(line);
+            }
+            Response replies = new Response();
+            runBatch(lines, replies);
+            replies.writeTo(connection.output());
+        });
+    }
+
+    // Every line is parsed like a single command, and its payload decoded in place in the line's
+    // own array, which the batch keeps until it has run; Base64 never decodes to more bytes than it
+    // reads, so the output never overtakes the input. Replies use the single commands' templates.
+    private void runBatch(List<byte[]> lines, Response out) {
+        CommandParser parser = SCRATCH.get().parser;
+        int count = lines.size();
+        Command[] commands = new Command[count];
+        String[] errors = new String[count]; // Set up front for lines that never reach the batch
+        int[] nameStarts = new int[count];
+        int[] nameEnds = new int[count];
+        int[] lengths = new int[count];
+        int[] positions = new int[count];
+        List<BatchOperation> ops = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            byte[] line = lines.get(i);
+            Command command = parser.parse(line, 0, line.length) ? parser.command() : Command.UNKNOWN;
+            commands[i] = command;
+            positions[i] = -1;
+            if (command != Command.CREATE && command != Command.WRITE && command != Command.APPEND
+                    && command != Command.DELETE) {
+                errors[i] = "ERROR: a batch only takes CREATE, WRITE, APPEND and DELETE";
+                continue;
+            }
+            if (parser.tokens() < 2) {
+                errors[i] = "ERROR: missing filename";
+                continue;
+            }
+            nameStarts[i] = parser.nameStart();
+            nameEnds[i] = parser.nameEnd();
+            BatchOperation op;
+            if (command == Command.CREATE) {
+                op = BatchOperation.create(parser.name());
+            } else if (command == Command.DELETE) {
+                op = BatchOperation.delete(parser.name());
+            } else if (parser.tokens() < 3) {
+                errors[i] = "ERROR: missing payload";
+                continue;
+            } else {
+                // As in handleWrite, WRITE name offset payload writes at offset
+                int start = parser.restStart();
+                int end = parser.restEnd();
+                long offset = -1;
+                int space = CommandParser.nextSpace(line, start, end);
+                if (command == Command.WRITE && space < end) {
+                    try {
+                        offset = CommandParser.parseNumber(line, start, space, "offset");
+                    } catch (Exception e) {
+                        errors[i] = "ERROR: " + e.getMessage();
+                        continue;
+                    }
+                    start = CommandParser.skipSpaces(line, space, end);
+                }
+                try {
+                    lengths[i] = Base64Codec.decode(line, start, end - start, line, start);
+                } catch (IllegalArgumentException ex) {
+                    errors[i] = "ERROR: invalid base64 payload";
+                    continue;
+                }
+                if (command == Command.APPEND) {
+                    op = BatchOperation.append(parser.name(), line, start, lengths[i]);
+                } else if (offset == -1) {
+                    op = BatchOperation.write(parser.name(), line, start, lengths[i]);
+                } else {
+                    op = BatchOperation.writeAt(parser.name(), offset, line, start, lengths[i]);
+                }
+            }
+            positions[i] = ops.size();
+            ops.add(op);
+        }
+
+        Exception[] failures;
+        try {
+            failures = fsManager.batch(ops);
+        } catch (Exception e) {
+            failures = new Exception[ops.size()];
+            Arrays.fill(failures, e);
+        }
+        for (BatchOperation op : ops) {
+            if (op.getKind() != BatchOperation.Kind.CREATE) {
+                invalidate(op.getFileName());
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            Exception failure = positions[i] == -1 ? null : failures[positions[i]];
+            byte[] line = lines.get(i);
+            if (errors[i] != null) {
+                out.println(errors[i]);
+            } else if (failure != null) {
+                out.println("ERROR: " + failure.getMessage());
+            } else if (commands[i] == Command.CREATE || commands[i] == Command.DELETE) {
+                reply(out, FILE, line, nameStarts[i], nameEnds[i], commands[i] == Command.CREATE ? CREATED : DELETED);
+            } else {
+                out.print(commands[i] == Command.WRITE ? WROTE : APPENDED);
+                out.print(lengths[i]);
+                reply(out, BYTES_TO, line, nameStarts[i], nameEnds[i], QUOTE_END);
+            }
+        }
+    }
+
+    // Answered only after the chunks have been read, even when the filename is missing
+    private void handleUpload(CommandParser parser, Response out) {
+        String filename = parser.tokens() < 2 ? null : parser.name();
+        out.transfer(connection -> {
+            ChunkedTransfer.upload(fsManager, filename, connection);
+            if (filename != null) {
+                invalidate(filename);
+            }
+        });
+    }
+
+    private void handleDownload(CommandParser parser, Response out) {
+        if (parser.tokens() < 2) {
+            out.println("ERROR: missing filename");
+            return;
+        }
+        String filename = parser.name();
+        out.transfer(connection -> ChunkedTransfer.download(fsManager, filename, connection));
+    }
+
+    // A hit is one write of the stored bytes: no disk access, no encoding and no String
+    private void handleCachedRead(String filename, Response out) throws Exception {
+        long generation = fsManager.getGeneration(filename);
+        byte[] line = responseCache.get(filename, generation);
+        if (line == null) {
+            line = encodeLine(fsManager.readFile(filename));
+            // Only cache what was read if no write finished in between
+            if (fsManager.getGeneration(filename) == generation) {
+                responseCache.put(filename, generation, line);
+            }
+        }
+        out.write(line);
+    }
+
+    private static byte[] encodeLine(byte[] data) {
+        byte[] separator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+        int encodedLength = Base64Codec.encodedLength(data.length);
+        byte[] line = new byte[encodedLength + separator.length];
+        Base64Codec.encode(data, 0, data.length, line, 0);
+        System.arraycopy(separator, 0, line, encodedLength, separator.length);
+        return line;
+    }
+
+    private void invalidate(String filename) {
+        if (responseCache != null) {
+            responseCache.invalidate(filename);
+        }
+    }
+
+    private void handleDelete(CommandParser parser, Response out) throws Exception {
+        if (parser.tokens() < 2) {
+            out.println("ERROR: missing filename");
+            return;
+        }
+        String filename = parser.name();
+        fsManager.deleteFile(filename);
+        invalidate(filename);
+        reply(out, FILE, parser, DELETED);
+    }
+
+    private void handleMkdir(CommandParser parser, Response out) throws Exception {
+        if (parser.tokens() < 2) {
+            out.println("ERROR: missing path");
+            return;
+        }
+        fsManager.createDirectory(parser.name());
+        reply(out, DIRECTORY, parser, CREATED);
+    }
+
+    private void handleRmdir(CommandParser parser, Response out) throws Exception {
+        if (parser.tokens() < 2) {
+            out.println("ERROR: missing path");
+            return;
+        }
+        fsManager.deleteDirectory(parser.name());
+        reply(out, DIRECTORY, parser, DELETED);
+    }
+
+    // prefix, the filename as it was sent, suffix
+    private static void reply(Response out, byte[] prefix, CommandParser parser, byte[] suffix) {
+        reply(out, prefix, parser.line(), parser.nameStart(), parser.nameEnd(), suffix);
+    }
+
+    private static void reply(Response out, byte[] prefix, byte[] line, int nameStart, int nameEnd, byte[] suffix) {
+        out.print(prefix);
+        out.print(line, nameStart, nameEnd - nameStart);
+        out.print(suffix);
+        out.println();
+    }
+
+    // prefix, the byte count, then " bytes to 'name'."
+    private static void reply(Response out, byte[] prefix, int length, CommandParser parser) {
+        out.print(prefix);
+        out.print(length);
+        reply(out, BYTES_TO, parser, QUOTE_END);
+    }
+
+    // The decoded payload or read data of the current command; only valid until the thread's next one
+    private static byte[] payloadBuffer(int size) {
+        return SCRATCH.get().buffer(size);
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // What each thread reuses from one command to the next
+    private static final class Scratch {
+
+        final CommandParser parser = new CommandParser();
+        private byte[] buffer = new byte[0];
+
+        byte[] buffer(int size) {
+            if (size > MAX_POOLED) {
+                return new byte[size]; // Not kept, so one huge WRITE does not pin its buffer
+            }
+            if (buffer.length < size) {
+                buffer = new byte[Math.max(size, Math.min(MAX_POOLED, 2 * buffer.length))];
+            }
+            return buffer;
+        }
+    }
+}
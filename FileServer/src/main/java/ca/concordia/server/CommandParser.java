@@ -0,0 +1,162 @@
+package ca.concordia.server;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Splits a text command line where it lies in the bytes it was read into, the way
+ * line.trim().split("\\s+", 3) splits its String: a command word, a filename and the rest of
+ * the line. The command is matched against the known words without creating a String, and
+ * the other fields are only offsets, so a caller decodes just what it needs. UTF-8 never uses
+ * ASCII bytes inside a multi-byte character, so splitting the bytes splits the characters.
+ * Reused for every line on a thread; holds the last line's fields until the next parse.
+ */
+final class CommandParser {
+
+    enum Command {
+        CREATE, LIST, WRITE, APPEND, READ, BATCH, UPLOAD, DOWNLOAD, DELETE, MKDIR, RMDIR, STATS, QUIT, UNKNOWN;
+
+        private final byte[] word = name().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final Command[] COMMANDS = Command.values();
+
+    private byte[] line;
+    private int tokens;
+    private int commandStart;
+    private int commandEnd;
+    private int nameStart;
+    private int nameEnd;
+    private int restStart;
+    private int restEnd;
+
+    /** Splits line[off..off+len). Returns false if it is blank. */
+    boolean parse(byte[] line, int off, int len) {
+        this.line = line;
+        int start = off;
+        int end = off + len;
+        // Like String.trim: everything up to and including the space counts
+        while (start < end && (line[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (line[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            tokens = 0;
+            return false;
+        }
+        commandStart = start;
+        commandEnd = nextSpace(line, start, end);
+        tokens = 1;
+        if (commandEnd < end) {
+            nameStart = skipSpaces(line, commandEnd, end);
+            nameEnd = nextSpace(line, nameStart, end);
+            tokens = 2;
+            if (nameEnd < end) {
+                restStart = skipSpaces(line, nameEnd, end);
+                restEnd = end;
+                tokens = 3;
+            }
+        }
+        return true;
+    }
+
+    /** The command word, ignoring ASCII case, or UNKNOWN. */
+    Command command() {
+        int length = commandEnd - commandStart;
+        for (Command command : COMMANDS) {
+            if (command.word.length == length && matches(command.word)) {
+                return command;
+            }
+        }
+        return Command.UNKNOWN;
+    }
+
+    /** How many of the command, filename and rest the line has. */
+    int tokens() {
+        return tokens;
+    }
+
+    byte[] line() {
+        return line;
+    }
+
+    String name() {
+        return new String(line, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8);
+    }
+
+    int nameStart() {
+        return nameStart;
+    }
+
+    int nameEnd() {
+        return nameEnd;
+    }
+
+    int restStart() {
+        return restStart;
+    }
+
+    int restEnd() {
+        return restEnd;
+    }
+
+    /** The index of the first whitespace in line[from..end), or end if there is none. */
+    static int nextSpace(byte[] line, int from, int end) {
+        while (from < end && !isSpace(line[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    static int skipSpaces(byte[] line, int from, int end) {
+        while (from < end && isSpace(line[from])) {
+            from++;
+        }
+        return from;
+    }
+
+    /**
+     * Parses line[start..end) as a non-negative number. Plain digits are read from the bytes;
+     * anything else gets Long.parseLong's rules and, if it fails them, an error naming what.
+     */
+    static long parseNumber(byte[] line, int start, int end, String what) throws Exception {
+        if (end > start && end - start < 19) {
+            long number = 0;
+            int i = start;
+            for (; i < end && line[i] >= '0' && line[i] <= '9'; i++) {
+                number = 10 * number + (line[i] - '0');
+            }
+            if (i == end) {
+                return number;
+            }
+        }
+        String value = new String(line, start, end - start, StandardCharsets.UTF_8);
+        try {
+            long number = Long.parseLong(value);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new Exception("invalid " + what + " '" + value + "'");
+    }
+
+    // The characters of the regex \s
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    private boolean matches(byte[] word) {
+        for (int i = 0; i < word.length; i++) {
+            int b = line[commandStart + i];
+            if (b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            }
+            if (b != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
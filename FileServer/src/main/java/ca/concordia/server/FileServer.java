@@ -1,106 +1,139 @@
 package ca.concordia.server;
 
 import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import ca.concordia.monitoring.Log;
+import ca.concordia.monitoring.Metrics;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.Base64;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Arrays;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class FileServer {
 
+    private static final int BACKLOG = 4096; // Connection storms queue here instead of being refused
+
     private final int port;
     private final FileSystemManager fsManager;
+    private final ServerOptions serverOptions;
+    private final CommandHandler commands;
+    private final BinaryProtocol binary;
 
     public FileServer(int port, String fileSystemName, int totalSize) {
+        this(port, fileSystemName, new FileSystemOptions().totalSize(totalSize));
+    }
+
+    public FileServer(int port, String fileSystemName, FileSystemOptions options) {
+        this(port, fileSystemName, options, new ServerOptions());
+    }
+
+    public FileServer(int port, String fileSystemName, FileSystemOptions options, ServerOptions serverOptions) {
         this.port = port;
+        this.serverOptions = serverOptions;
         try {
-            FileSystemManager.init(fileSystemName, totalSize);
+            FileSystemManager.init(fileSystemName, options);
             this.fsManager = FileSystemManager.getInstance();
         } catch (Exception e) {
             throw new RuntimeException("Failed to initialize FileSystemManager", e);
         }
+        ResponseCache responseCache = serverOptions.getResponseCacheBytes() > 0
+                ? new ResponseCache(serverOptions.getResponseCacheBytes()) : null;
+        this.commands = new CommandHandler(fsManager, responseCache);
+        this.binary = new BinaryProtocol(fsManager, responseCache, serverOptions.getZeroCopyMinBytes());
     }
 
     
     public void start() {
-        
-        ExecutorService executor = Executors.newCachedThreadPool();
+        Metrics.registerMBean();
+        try {
+            switch (serverOptions.getMode()) {
+                case NIO:
+                    new NioServer(port, commands, binary, serverOptions).run();
+                    break;
+                case VIRTUAL:
+                    runThreadPerConnection(newVirtualThreadExecutor());
+                    break;
+                default:
+                    runThreadPerConnection(Executors.newCachedThreadPool());
+            }
+        } catch (IOException e) {
+            Log.error("Failed to start server on port " + port, e);
+        }
+    }
 
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("File server listening on port " + port);
+    // Each connection gets its own thread from executor, blocked in read() between commands.
+    // Sockets are accepted through a channel so that binary READs can transferTo() them.
+    private void runThreadPerConnection(ExecutorService executor) throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), BACKLOG);
+            Log.info("File server listening on port " + port + " (" + serverOptions.getMode() + ")");
 
             while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("New connection from " + clientSocket.getRemoteSocketAddress());
-                
-                executor.execute(new ClientHandler(clientSocket, fsManager));
+                Socket clientSocket = serverChannel.accept().socket();
+                if (Log.enabled(Log.Level.INFO)) {
+                    Log.info("New connection from " + clientSocket.getRemoteSocketAddress());
+                }
+
+                executor.execute(new ClientHandler(clientSocket, commands, binary));
             }
-        } catch (IOException e) {
-            System.err.println("Failed to start server on port " + port);
-            e.printStackTrace();
         }
-      
+    }
+
+    // Looked up at run time so the server still builds and runs on Java 17, where only this mode is missing
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("The virtual thread mode needs Java 21 or later.", e);
+        }
     }
 
     
     private static class ClientHandler implements Runnable {
 
         private final Socket socket;
-        private final FileSystemManager fsManager;
+        private final CommandHandler commands;
+        private final BinaryProtocol binary;
 
-        ClientHandler(Socket socket, FileSystemManager fsManager) {
+        ClientHandler(Socket socket, CommandHandler commands, BinaryProtocol binary) {
             this.socket = socket;
-            this.fsManager = fsManager;
+            this.commands = commands;
+            this.binary = binary;
         }
 
         @Override
         public void run() {
-            try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true)
-            ) {
-                String line;
-                while ((line = in.readLine()) != null) {
-                    line = line.trim();
-                    if (line.isEmpty()) {
-                        out.println("ERROR: Unknown command.");
-                        continue;
-                    }
-
-                    System.out.println("[" + socket.getRemoteSocketAddress() + "] " + line);
-                    String[] tokens = line.split("\\s+", 3);
-                    String cmd = tokens[0].toUpperCase();
-
-                    try {
-                        if ("CREATE".equals(cmd)) {
-                            handleCreate(tokens, out);
-                        } else if ("LIST".equals(cmd)) {
-                            handleList(out);
-                        } else if ("WRITE".equals(cmd)) {
-                            handleWrite(tokens, out);
-                        } else if ("READ".equals(cmd)) {
-                            handleRead(tokens, out);
-                        } else if ("DELETE".equals(cmd)) {
-                            handleDelete(tokens, out);
-                        } else if ("QUIT".equals(cmd)) {
-                            out.println("SUCCESS: Disconnecting.");
-                            break;
-                        } else {
-                            out.println("ERROR: Unknown command.");
-                        }
-                    } catch (Exception e) {
-                        out.println("ERROR: " + e.getMessage());
-                    }
+            Metrics.get().connectionOpened();
+            try {
+                InputStream raw = new CountingInputStream(socket.getInputStream());
+                OutputStream out = new CountingOutputStream(socket.getOutputStream());
+                String client = String.valueOf(socket.getRemoteSocketAddress());
+                int first = raw.read();
+                if (first == BinaryProtocol.MAGIC) {
+                    serveBinary(client, new DataInputStream(new BufferedInputStream(raw, 256)), out);
+                } else if (first != -1) {
+                    // Not a binary client: the byte already read starts its first text command
+                    InputStream text = new SequenceInputStream(new ByteArrayInputStream(new byte[]{(byte) first}), raw);
+                    serveText(client, new LineReader(text), out);
                 }
             } catch (IOException e) {
-                System.err.println("I/O error with client " + socket);
+                Log.warn("I/O error with client " + socket + ": " + e.getMessage());
             } finally {
+                Metrics.get().connectionClosed();
                 try {
                     socket.close();
                 } catch (IOException ignored) {
@@ -108,64 +141,149 @@ public class FileServer {
             }
         }
 
+        private void serveText(String client, LineReader in, OutputStream out) throws IOException {
+            StreamingConnection connection = new SocketConnection(socket, in, out);
+            Response response = new Response(); // One at a time, so its buffer serves every command
+            int length;
+            while ((length = in.nextLine()) != -1) {
+                boolean open = commands.execute(client, in.line(), in.lineStart(), length, response);
+                send(response, out, connection);
+                response.reset();
+                if (!open) {
+                    break;
+                }
+            }
+        }
 
-        private void handleCreate(String[] tokens, PrintWriter out) throws Exception {
-            if (tokens.length < 2) {
-                out.println("ERROR: missing filename");
+        // A transfer reads from the client directly, so it gets the same bound on a stalled client as
+        // NioServer's; between commands a connection may stay idle for as long as it likes
+        private void send(Response response, OutputStream out, StreamingConnection connection) throws IOException {
+            if (response.getTransfer() == null) {
+                response.writeTo(out, connection);
                 return;
             }
-            String filename = tokens[1];
-            fsManager.createFile(filename);
-            out.println("SUCCESS: File '" + filename + "' created.");
+            int previous = socket.getSoTimeout();
+            socket.setSoTimeout((int) StreamingConnection.TIMEOUT_MILLIS);
+            try {
+                response.writeTo(out, connection);
+            } finally {
+                socket.setSoTimeout(previous);
+            }
         }
 
-        private void handleList(PrintWriter out) {
-            String[] files = fsManager.listFiles();
-            if (files == null || files.length == 0) {
-                out.println("(empty)");
+        private void serveBinary(String client, DataInputStream in, OutputStream out) throws IOException {
+            StreamingConnection connection = new SocketConnection(socket, null, out);
+            int version = in.read();
+            if (version != BinaryProtocol.VERSION) {
+                BinaryProtocol.error("Unsupported protocol version " + version + ".").writeTo(out);
                 return;
             }
-            for (String name : files) {
-                out.println(name);
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (length <= 0 || length > BinaryProtocol.MAX_FRAME) {
+                    BinaryProtocol.error("Invalid frame length " + length + ".").writeTo(out);
+                    return;
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                Response response = new Response();
+                boolean open = binary.execute(client, frame, 0, length, response);
+                send(response, out, connection);
+                if (!open) {
+                    return;
+                }
             }
         }
+    }
 
-        private void handleWrite(String[] tokens, PrintWriter out) throws Exception {
-            if (tokens.length < 3) {
-                out.println("ERROR: missing payload");
-                return;
+    // Lines come from the handler's own reader, which may already hold bytes past the command
+    private static class SocketConnection implements StreamingConnection {
+
+        private final Socket socket;
+        private final LineReader in; // null on binary connections, which have no lines
+        private final OutputStream out;
+
+        SocketConnection(Socket socket, LineReader in, OutputStream out) {
+            this.socket = socket;
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public String readLine() throws IOException {
+            if (in == null) {
+                throw new IOException("A binary connection has no lines to read.");
             }
-            String filename = tokens[1];
-            String encoded = tokens[2];
+            return in.readLine();
+        }
 
-            try {
-                byte[] payload = Base64.getDecoder().decode(encoded);
-                fsManager.writeFile(filename, payload);
-                out.println("SUCCESS: Wrote " + payload.length + " bytes to '" + filename + "'.");
-            } catch (IllegalArgumentException ex) {
-                out.println("ERROR: invalid base64 payload");
+        @Override
+        public byte[] readLineBytes() throws IOException {
+            if (in == null) {
+                throw new IOException("A binary connection has no lines to read.");
             }
+            int length = in.nextLine();
+            return length == -1 ? null : Arrays.copyOfRange(in.line(), in.lineStart(), in.lineStart() + length);
         }
 
-        private void handleRead(String[] tokens, PrintWriter out) throws Exception {
-            if (tokens.length < 2) {
-                out.println("ERROR: missing filename");
-                return;
+        @Override
+        public OutputStream output() {
+            return out;
+        }
+
+        @Override
+        public GatheringByteChannel channel() {
+            return socket.getChannel();
+        }
+    }
+
+    // Count the traffic of a blocking connection; writes that bypass them are counted where they happen
+    private static class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                Metrics.get().bytesIn(1);
             }
-            String filename = tokens[1];
-            byte[] data = fsManager.readFile(filename);
-            String encoded = Base64.getEncoder().encodeToString(data);
-            out.println(encoded);
+            return b;
         }
 
-        private void handleDelete(String[] tokens, PrintWriter out) throws Exception {
-            if (tokens.length < 2) {
-                out.println("ERROR: missing filename");
-                return;
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                Metrics.get().bytesIn(n);
             }
-            String filename = tokens[1];
-            fsManager.deleteFile(filename);
-            out.println("SUCCESS: File '" + filename + "' deleted.");
+            return n;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            Metrics.get().bytesOut(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            Metrics.get().bytesOut(len);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package ca.concordia.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads newline-terminated UTF-8 lines from a socket with a buffer that starts small, grows
+ * for long commands such as large WRITEs and shrinks back afterwards if it grew past 16 KB.
+ * A BufferedReader over an InputStreamReader holds about 24 KB per connection for its whole
+ * life, which dominates the footprint of tens of thousands of idle connections. Lines can be
+ * taken as bytes where they lie in the buffer, so parsing a command needs no String.
+ */
+final class LineReader {
+
+    private static final int INITIAL_SIZE = 256;
+    private static final int MAX_LINE = 64 * 1024 * 1024;
+    private static final int MAX_RETAINED = 16 * 1024; // Kept between lines, so mid-sized WRITEs reuse one buffer
+
+    private final InputStream in;
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private int start;
+    private int end;
+    private byte[] line; // The array holding the last line, which a shrink may have replaced as buffer
+    private int lineStart;
+
+    LineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /** The next line without its terminator, or null at end of stream. A final unterminated line is returned too. */
+    String readLine() throws IOException {
+        int length = nextLine();
+        return length == -1 ? null : new String(line, lineStart, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the next line and returns its length, or -1 at end of stream. Its bytes, without the
+     * terminator, are line()[lineStart()..lineStart()+length) until the next call.
+     */
+    int nextLine() throws IOException {
+        int scanned = start;
+        while (true) {
+            for (int i = scanned; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    line = buffer;
+                    lineStart = start;
+                    start = i + 1;
+                    if (start == end) {
+                        start = end = 0;
+                        if (buffer.length > MAX_RETAINED) {
+                            buffer = new byte[INITIAL_SIZE];
+                        }
+                    }
+                    return i - lineStart;
+                }
+            }
+            scanned = end;
+            if (end == buffer.length) {
+                scanned -= compact();
+            }
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read == -1) {
+                if (end == start) {
+                    return -1;
+                }
+                line = buffer;
+                lineStart = start;
+                start = end;
+                return end - lineStart;
+            }
+            end += read;
+        }
+    }
+
+    byte[] line() {
+        return line;
+    }
+
+    int lineStart() {
+        return lineStart;
+    }
+
+    // Moves the pending bytes to the front, growing the buffer if they fill it; returns how far they moved
+    private int compact() throws IOException {
+        int shift = start;
+        int used = end - start;
+        if (used >= MAX_LINE) {
+            throw new IOException("Request line too long");
+        }
+        byte[] target = used == buffer.length ? new byte[Math.min(MAX_LINE, 2 * buffer.length)] : buffer;
+        System.arraycopy(buffer, start, target, 0, used);
+        buffer = target;
+        start = 0;
+        end = used;
+        return shift;
+    }
+}
@@ -0,0 +1,517 @@
+package ca.concordia.server;
+
+import ca.concordia.monitoring.Log;
+import ca.concordia.monitoring.Metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking server mode. A few event-loop threads multiplex every connection with a Selector,
+ * so an idle client costs a selection key and a few fields instead of a thread. The loops only
+ * frame lines and move bytes; commands run on a bounded worker pool. A connection has at most one
+ * command in flight and is not read again until that command's response is written, which keeps
+ * responses in request order and throttles clients that send faster than they read. A connection
+ * whose first byte is BinaryProtocol.MAGIC speaks the binary protocol for the rest of its life.
+ */
+class NioServer {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE = 64 * 1024 * 1024;
+    private static final int MAX_PENDING = Math.max(MAX_LINE, BinaryProtocol.MAX_FRAME + 6); // Magic, version, length
+    private static final byte[] BUSY = ("ERROR: Server is busy, try again later." + System.lineSeparator())
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final int port;
+    private final CommandHandler commands;
+    private final BinaryProtocol binary;
+    private final EventLoop[] loops;
+    private final ThreadPoolExecutor workers;
+
+    NioServer(int port, CommandHandler commands, BinaryProtocol binary, ServerOptions options) throws IOException {
+        this.port = port;
+        this.commands = commands;
+        this.binary = binary;
+        this.loops = new EventLoop[Math.max(1, options.getEventLoops())];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+        }
+        AtomicInteger workerIds = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(options.getWorkerThreads(), options.getWorkerThreads(),
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(options.getWorkerQueue()), task -> {
+                    Thread thread = new Thread(task, "fs-worker-" + workerIds.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /** Accepts connections on the calling thread and deals them out to the event loops round-robin. */
+    void run() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            for (int i = 0; i < loops.length; i++) {
+                Thread thread = new Thread(loops[i], "nio-loop-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            Log.info("File server listening on port " + port + " (" + loops.length + " event loops)");
+
+            for (int next = 0; ; next = (next + 1) % loops.length) {
+                SocketChannel channel = server.accept();
+                if (Log.enabled(Log.Level.INFO)) {
+                    Log.info("New connection from " + channel.getRemoteAddress());
+                }
+                loops[next].register(channel);
+            }
+        }
+    }
+
+    private final class EventLoop implements Runnable {
+
+        private final Selector selector;
+        // Shared by every connection of this loop: bytes only stay here during one read or write
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop() throws IOException {
+            selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    channel.configureBlocking(false);
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    Connection connection = new Connection(this, channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    Metrics.get().connectionOpened();
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        /** Runs task on this loop's thread, which owns every connection registered with it. */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    Log.error("Selector failed: " + e.getMessage());
+                    return;
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        Log.error("Event loop task failed", e);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        connection.close();
+                    }
+                }
+            }
+        }
+    }
+
+    // Only touched by its loop's thread, apart from the command line or frame handed to a worker
+    private final class Connection {
+
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final String client;
+        private SelectionKey key;
+        private byte[] pending = new byte[0]; // Bytes read past the current command; usually empty
+        private int pendingStart;
+        private int pendingEnd;
+        private int scanned; // pending[pendingStart..scanned) is known to hold no newline
+        private ByteBuffer response; // Response still being written, or null
+        private boolean closeAfterResponse;
+        private boolean binaryMode; // Decided by the first byte received
+        private boolean handshaken; // Binary mode only: magic and version have been checked
+        private boolean started;
+        private boolean closed;
+
+        Connection(EventLoop loop, SocketChannel channel) throws IOException {
+            this.loop = loop;
+            this.channel = channel;
+            this.client = String.valueOf(channel.getRemoteAddress());
+        }
+
+        void read() throws IOException {
+            ByteBuffer in = loop.readBuffer;
+            in.clear();
+            int read = channel.read(in);
+            if (read == -1) {
+                close();
+                return;
+            }
+            Metrics.get().bytesIn(read);
+            in.flip();
+            if (!started && in.hasRemaining()) {
+                started = true;
+                binaryMode = (in.get(in.position()) & 0xFF) == BinaryProtocol.MAGIC;
+            }
+            if (binaryMode) {
+                stash(in);
+                nextFrame();
+                return;
+            }
+            int newline = indexOf(in, (byte) '\n');
+            if (newline == -1) {
+                stash(in);
+                return;
+            }
+            byte[] line;
+            if (pendingEnd == pendingStart) {
+                // The common case: a whole command in one read, copied straight from the direct buffer
+                line = new byte[newline - in.position()];
+                in.get(in.position(), line);
+            } else {
+                stash(in.slice(in.position(), newline - in.position()));
+                line = Arrays.copyOfRange(pending, pendingStart, pendingEnd);
+                consume(pendingEnd);
+            }
+            in.position(newline + 1);
+            stash(in);
+            dispatch(line);
+        }
+
+        // Copies the buffer's remaining bytes behind whatever is already pending
+        private void stash(ByteBuffer in) throws IOException {
+            int length = in.remaining();
+            if (length == 0) {
+                return;
+            }
+            if (pendingEnd - pendingStart + length > (binaryMode ? MAX_PENDING : MAX_LINE)) {
+                throw new IOException("Request too long");
+            }
+            if (pendingEnd + length > pending.length) {
+                int used = pendingEnd - pendingStart;
+                byte[] grown = pending.length >= used + length ? pending
+                        : new byte[Math.max(used + length, Math.min(MAX_PENDING, 2 * pending.length + length))];
+                System.arraycopy(pending, pendingStart, grown, 0, used);
+                scanned = Math.max(0, scanned - pendingStart);
+                pending = grown;
+                pendingStart = 0;
+                pendingEnd = used;
+            }
+            in.get(pending, pendingEnd, length);
+            pendingEnd += length;
+        }
+
+        // The line is the worker's own copy: the pending buffer moves on while the command runs
+        private void dispatch(byte[] line) {
+            key.interestOps(0);
+            try {
+                workers.execute(() -> {
+                    Response response = new Response();
+                    boolean open = commands.execute(client, line, 0, line.length, response);
+                    finish(response, open);
+                });
+            } catch (RejectedExecutionException e) {
+                respond(ByteBuffer.wrap(BUSY), false);
+            }
+        }
+
+        // Dispatches the next complete binary frame, or goes back to reading until one has arrived
+        private void nextFrame() {
+            int available = pendingEnd - pendingStart;
+            if (!handshaken) {
+                if (available < 2) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+                int version = pending[pendingStart + 1];
+                consume(pendingStart + 2);
+                if (version != BinaryProtocol.VERSION) {
+                    respond(BinaryProtocol.error("Unsupported protocol version " + version + ".").asByteBuffer(), true);
+                    return;
+                }
+                handshaken = true;
+                available -= 2;
+            }
+            if (available < 4) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            int length = ByteBuffer.wrap(pending, pendingStart, 4).getInt();
+            if (length <= 0 || length > BinaryProtocol.MAX_FRAME) {
+                respond(BinaryProtocol.error("Invalid frame length " + length + ".").asByteBuffer(), true);
+                return;
+            }
+            if (available < 4 + length) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            byte[] frame;
+            int offset;
+            int end = pendingStart + 4 + length;
+            if (end == pendingEnd) {
+                // Nothing behind this frame: hand the whole buffer to the worker rather than copy it
+                frame = pending;
+                offset = pendingStart + 4;
+                pending = new byte[0];
+                pendingStart = pendingEnd = scanned = 0;
+            } else {
+                frame = Arrays.copyOfRange(pending, pendingStart + 4, end);
+                offset = 0;
+                consume(end);
+            }
+            key.interestOps(0);
+            try {
+                workers.execute(() -> {
+                    Response response = new Response();
+                    boolean open = binary.execute(client, frame, offset, length, response);
+                    finish(response, open);
+                });
+            } catch (RejectedExecutionException e) {
+                respond(ByteBuffer.wrap(BinaryProtocol.message(BinaryProtocol.ERROR, "Server is busy, try again later.")), false);
+            }
+        }
+
+        // Runs on the worker that executed the command
+        private void finish(Response response, boolean open) {
+            if (response.getTransfer() == null) {
+                loop.execute(() -> respond(response.asByteBuffer(), !open));
+                return;
+            }
+            // The loop leaves this connection alone until it is told the command is done, so the
+            // worker can talk to the client itself: send a file from the disk image, read an upload
+            boolean failed = false;
+            try (WorkerConnection connection = new WorkerConnection()) {
+                ByteBuffer bytes = response.asByteBuffer();
+                connection.output().write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+                response.getTransfer().run(connection);
+            } catch (IOException e) {
+                failed = true;
+            }
+            boolean close = !open || failed;
+            loop.execute(() -> respond(ByteBuffer.allocate(0), close));
+        }
+
+        private void respond(ByteBuffer bytes, boolean close) {
+            response = bytes;
+            closeAfterResponse = close;
+            try {
+                flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        // Copies the response through the loop's direct buffer, so the JDK needs no temporary one
+        void flush() throws IOException {
+            ByteBuffer out = loop.writeBuffer;
+            while (response.hasRemaining()) {
+                out.clear();
+                int chunk = Math.min(out.remaining(), response.remaining());
+                out.put(response.slice(response.position(), chunk));
+                out.flip();
+                int written = channel.write(out);
+                Metrics.get().bytesOut(written);
+                response.position(response.position() + written);
+                if (written < chunk) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            response = null;
+            if (closeAfterResponse) {
+                close();
+                return;
+            }
+            if (binaryMode) {
+                nextFrame();
+                return;
+            }
+            // Commands that arrived together with the last one go next, before reading any more
+            int newline = indexOf(pending, Math.max(scanned, pendingStart), pendingEnd, (byte) '\n');
+            if (newline == -1) {
+                scanned = pendingEnd;
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+            byte[] line = Arrays.copyOfRange(pending, pendingStart, newline);
+            consume(newline + 1);
+            dispatch(line);
+        }
+
+        // Drops pending bytes before end; a buffer grown for one large command is given back once empty
+        private void consume(int end) {
+            pendingStart = scanned = end;
+            if (pendingStart == pendingEnd) {
+                pendingStart = pendingEnd = scanned = 0;
+                if (pending.length > BUFFER_SIZE) {
+                    pending = new byte[0];
+                }
+            }
+        }
+
+        void close() {
+            if (!closed) {
+                closed = true;
+                Metrics.get().connectionClosed();
+            }
+            key.cancel();
+            closeQuietly(channel);
+        }
+
+        /**
+         * Blocking access to this connection for a worker, while the loop is not watching it. Waits
+         * on a private selector, opened on first use, whenever the socket has nothing to read or
+         * no room to write; the channel stays registered with the loop's selector meanwhile.
+         */
+        private final class WorkerConnection implements StreamingConnection, AutoCloseable {
+
+            private ByteBuffer input; // Private to the worker: the loop's read buffer is not
+            private Selector selector;
+
+            @Override
+            public String readLine() throws IOException {
+                byte[] line = readLineBytes();
+                return line == null ? null : new String(line, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public byte[] readLineBytes() throws IOException {
+                while (true) {
+                    int newline = indexOf(pending, Math.max(scanned, pendingStart), pendingEnd, (byte) '\n');
+                    if (newline != -1) {
+                        byte[] line = Arrays.copyOfRange(pending, pendingStart, newline);
+                        consume(newline + 1);
+                        return line;
+                    }
+                    scanned = pendingEnd;
+                    if (input == null) {
+                        input = ByteBuffer.allocate(8 * 1024);
+                    }
+                    input.clear();
+                    int read = channel.read(input);
+                    if (read == -1) {
+                        return null;
+                    }
+                    Metrics.get().bytesIn(read);
+                    if (read == 0) {
+                        await(SelectionKey.OP_READ);
+                    }
+                    input.flip();
+                    stash(input);
+                }
+            }
+
+            @Override
+            public OutputStream output() {
+                return new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        write(new byte[]{(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        ByteBuffer bytes = ByteBuffer.wrap(b, off, len);
+                        while (bytes.hasRemaining()) {
+                            if (channel.write(bytes) == 0) {
+                                await(SelectionKey.OP_WRITE);
+                            }
+                        }
+                        Metrics.get().bytesOut(len);
+                    }
+                };
+            }
+
+            @Override
+            public GatheringByteChannel channel() {
+                return channel;
+            }
+
+            private void await(int ops) throws IOException {
+                if (selector == null) {
+                    selector = Selector.open();
+                }
+                SelectionKey waitKey = channel.keyFor(selector);
+                if (waitKey == null) {
+                    channel.register(selector, ops);
+                } else {
+                    waitKey.interestOps(ops);
+                }
+                if (selector.select(TIMEOUT_MILLIS) == 0) {
+                    throw new IOException("Timed out waiting for the client.");
+                }
+                selector.selectedKeys().clear();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (selector != null) {
+                    selector.close();
+                }
+            }
+        }
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte value) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte value) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package ca.concordia.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The bytes of one command's response, sent with a single write once the command is done.
+ * A pre-encoded response that makes up the whole reply is kept as is rather than copied.
+ * Text is added in pieces, such as a message template, a filename and a number, straight into
+ * the buffer, so building a reply creates no Strings. A connection that answers one command at
+ * a time can reset and reuse its response, keeping a buffer of moderate size between commands;
+ * otherwise one is allocated per command, so idle connections hold no output buffers at all.
+ * A response may end in a transfer that talks to the connection directly, such as a zero-copy
+ * or chunked READ.
+ */
+final class Response {
+
+    private static final byte[] SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_RETAINED = 64 * 1024; // Larger buffers are dropped on reset
+
+    private byte[] owned; // The buffer this response appends to, kept across resets
+    private byte[] bytes; // owned, or a complete array that was borrowed
+    private int count;
+    private Transfer transfer;
+
+    void println(String line) {
+        print(line);
+        println();
+    }
+
+    void println() {
+        print(SEPARATOR, 0, SEPARATOR.length);
+    }
+
+    /** Adds text as UTF-8, copying ASCII characters directly rather than through an encoder. */
+    void print(String text) {
+        int length = text.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                byte[] rest = text.substring(i).getBytes(StandardCharsets.UTF_8);
+                print(rest, 0, rest.length);
+                return;
+            }
+            bytes[count++] = (byte) c;
+        }
+    }
+
+    void print(byte[] text) {
+        print(text, 0, text.length);
+    }
+
+    void print(byte[] text, int off, int len) {
+        ensure(len);
+        System.arraycopy(text, off, bytes, count, len);
+        count += len;
+    }
+
+    /** Adds a non-negative number in decimal. */
+    void print(long number) {
+        ensure(20);
+        int digits = 1;
+        for (long rest = number / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = count + digits - 1; i >= count; i--) {
+            bytes[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        count += digits;
+    }
+
+    /** Adds data[off..off+len) encoded as Base64. */
+    void printBase64(byte[] data, int off, int len) {
+        ensure(Base64Codec.encodedLength(len));
+        count += Base64Codec.encode(data, off, len, bytes, count);
+    }
+
+    /**
+     * Adds bytes that are complete as they are, such as a cached line with its separator or a
+     * binary frame. The array must not be modified afterwards.
+     */
+    void write(byte[] complete) {
+        if (count == 0) {
+            bytes = complete;
+            count = complete.length;
+        } else {
+            print(complete, 0, complete.length);
+        }
+    }
+
+    /** Ends the response with transfer, which runs once the bytes before it have been sent. */
+    void transfer(Transfer transfer) {
+        this.transfer = transfer;
+    }
+
+    Transfer getTransfer() {
+        return transfer;
+    }
+
+    /** Empties the response for the connection's next command, once it has been written. */
+    void reset() {
+        if (owned != null && owned.length > MAX_RETAINED) {
+            owned = null;
+        }
+        bytes = owned;
+        count = 0;
+        transfer = null;
+    }
+
+    /** Writes the bytes to out and then runs the transfer, if any, on connection, the same client. */
+    void writeTo(OutputStream out, StreamingConnection connection) throws IOException {
+        writeTo(out);
+        if (transfer != null) {
+            transfer.run(connection);
+        }
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        if (count > 0) {
+            out.write(bytes, 0, count);
+        }
+        out.flush();
+    }
+
+    ByteBuffer asByteBuffer() {
+        return count == 0 ? ByteBuffer.allocate(0) : ByteBuffer.wrap(bytes, 0, count);
+    }
+
+    interface Transfer {
+        /** Finishes the command on connection, reading from and writing to the client directly. */
+        void run(StreamingConnection connection) throws IOException;
+    }
+
+    // Makes room for more bytes in the owned buffer; a borrowed array is copied into it first
+    private void ensure(int more) {
+        int needed = count + more;
+        if (bytes == owned && owned != null && needed <= owned.length) {
+            return;
+        }
+        byte[] target = owned != null && needed <= owned.length ? owned
+                : new byte[Math.max(needed, owned == null ? 128 : 2 * owned.length)];
+        if (count > 0 && bytes != target) {
+            System.arraycopy(bytes, 0, target, 0, count);
+        }
+        owned = bytes = target;
+    }
+}
@@ -0,0 +1,83 @@
+package ca.concordia.server;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Complete READ responses (Base64 line plus newline) of whole files, keyed by file name and
+ * tagged with the file's generation. An entry is only served while the file still has that
+ * generation, so a stale response can never be returned even if an invalidation was missed.
+ * The total size is bounded approximately: inserts that push it over the limit evict other entries.
+ */
+public class ResponseCache {
+
+    private static final class Response {
+        final long generation;
+        final byte[] line;
+
+        Response(long generation, byte[] line) {
+            this.generation = generation;
+            this.line = line;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Response> responses = new ConcurrentHashMap<>();
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /** Holds up to maxBytes of responses, none larger than an eighth of that. */
+    public ResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxBytes / 8;
+    }
+
+    /** The cached response for this version of the file, or null. The array must not be modified. */
+    public byte[] get(String fileName, long generation) {
+        Response response = responses.get(fileName);
+        if (response == null || response.generation != generation) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return response.line;
+    }
+
+    /** Caches line as the response for this version of the file. The array is kept, not copied. */
+    public void put(String fileName, long generation, byte[] line) {
+        if (line.length > maxEntryBytes) {
+            return;
+        }
+        Response previous = responses.put(fileName, new Response(generation, line));
+        long total = bytes.addAndGet(line.length - (previous == null ? 0 : previous.line.length));
+        Iterator<String> names = responses.keySet().iterator();
+        while (total > maxBytes && names.hasNext()) {
+            String name = names.next();
+            if (!name.equals(fileName)) {
+                total = evict(name);
+            }
+        }
+    }
+
+    /** Drops the response for fileName; called after it is written or deleted. */
+    public void invalidate(String fileName) {
+        evict(fileName);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private long evict(String fileName) {
+        Response removed = responses.remove(fileName);
+        return removed == null ? bytes.get() : bytes.addAndGet(-removed.line.length);
+    }
+}
@@ -0,0 +1,104 @@
+package ca.concordia.server;
+
+/**
+ * Settings for the network side of the server, independent of the volume it serves.
+ */
+public class ServerOptions {
+
+    private Mode mode = Mode.BLOCKING;
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+    private int workerThreads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    private int workerQueue = 1024;
+    private long responseCacheBytes = 8L * 1024 * 1024;
+    private long zeroCopyMinBytes = 64 * 1024;
+
+    /** Reads overrides such as -Dserver.mode=nio, -Dserver.eventLoops=2 or -Dserver.responseCacheBytes=0. */
+    public static ServerOptions fromSystemProperties() {
+        ServerOptions options = new ServerOptions();
+        options.eventLoops = Integer.getInteger("server.eventLoops", options.eventLoops);
+        options.workerThreads = Integer.getInteger("server.workerThreads", options.workerThreads);
+        options.workerQueue = Integer.getInteger("server.workerQueue", options.workerQueue);
+        options.responseCacheBytes = Long.getLong("server.responseCacheBytes", options.responseCacheBytes);
+        options.zeroCopyMinBytes = Long.getLong("server.zeroCopyMinBytes", options.zeroCopyMinBytes);
+        String mode = System.getProperty("server.mode");
+        if (mode != null) {
+            options.mode = Mode.valueOf(mode.toUpperCase());
+        }
+        return options;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public ServerOptions mode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    public int getEventLoops() {
+        return eventLoops;
+    }
+
+    /** Selector threads in NIO mode; each one owns a share of the connections. */
+    public ServerOptions eventLoops(int eventLoops) {
+        this.eventLoops = eventLoops;
+        return this;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /** Threads running file system commands in NIO mode. */
+    public ServerOptions workerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+        return this;
+    }
+
+    public int getWorkerQueue() {
+        return workerQueue;
+    }
+
+    /** Commands that may wait for a worker in NIO mode before new ones are refused as busy. */
+    public ServerOptions workerQueue(int workerQueue) {
+        this.workerQueue = workerQueue;
+        return this;
+    }
+
+    public long getResponseCacheBytes() {
+        return responseCacheBytes;
+    }
+
+    /** Memory for encoded READ responses of hot files; 0 disables the response cache. */
+    public ServerOptions responseCacheBytes(long responseCacheBytes) {
+        this.responseCacheBytes = responseCacheBytes;
+        return this;
+    }
+
+    public long getZeroCopyMinBytes() {
+        return zeroCopyMinBytes;
+    }
+
+    /**
+     * Binary READs of at least this many bytes are sent from the disk image with transferTo
+     * instead of being copied through the heap; smaller ones are cheaper as a single write.
+     * Long.MAX_VALUE turns zero-copy reads off.
+     */
+    public ServerOptions zeroCopyMinBytes(long zeroCopyMinBytes) {
+        this.zeroCopyMinBytes = zeroCopyMinBytes;
+        return this;
+    }
+
+    public enum Mode {
+        /** A thread per connection, blocked in read() between commands. Simple, but 10k clients are 10k threads. */
+        BLOCKING,
+        /** A few selector threads multiplex every connection; commands run on a bounded worker pool. */
+        NIO,
+        /**
+         * A virtual thread per connection (Java 21 and later): the blocking code, but an idle client
+         * costs a parked continuation on the heap instead of an OS thread.
+         */
+        VIRTUAL
+    }
+}
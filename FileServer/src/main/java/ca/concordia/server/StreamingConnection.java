@@ -0,0 +1,27 @@
+package ca.concordia.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * The client connection as seen by a command that streams, for as long as the command runs.
+ * Every method blocks until it is done, whichever server mode owns the connection.
+ */
+interface StreamingConnection {
+
+    /** How long a streaming command waits on the client before giving up with an IOException. */
+    long TIMEOUT_MILLIS = 30_000;
+
+    /** The next line the client sent, without its terminator, or null at end of stream. */
+    String readLine() throws IOException;
+
+    /** The same as readLine, as the line's UTF-8 bytes in an array of their own. */
+    byte[] readLineBytes() throws IOException;
+
+    /** Unbuffered output to the client. */
+    OutputStream output();
+
+    /** The socket itself, for transferTo; may be in non-blocking mode. */
+    GatheringByteChannel channel();
+}
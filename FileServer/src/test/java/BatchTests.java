@@ -0,0 +1,108 @@
+import ca.concordia.filesystem.BatchOperation;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchTests {
+
+    @TempDir
+    static Path dir;
+
+    static FileSystemManager fs;
+
+    @BeforeAll
+    static void setup() throws Exception {
+        fs = open(true);
+    }
+
+    static FileSystemManager open(boolean format) throws Exception {
+        return new FileSystemManager(dir.resolve("batch.dat").toString(),
+                new FileSystemOptions().totalSize(64 * 128).maxFiles(8).format(format));
+    }
+
+    @AfterAll
+    static void teardown() throws Exception {
+        fs.close();
+    }
+
+    @Test
+    void testBatchCommitsOnce() throws Exception {
+        long commits = fs.getJournal().getCommitCount();
+        byte[] big = new byte[3 * 128 + 5];
+        Arrays.fill(big, (byte) 'b');
+        Exception[] failures = fs.batch(List.of(
+                BatchOperation.create("one"),
+                BatchOperation.write("one", big, 0, big.length),
+                BatchOperation.create("two"),
+                BatchOperation.append("two", "xy".getBytes(), 0, 2),
+                BatchOperation.append("two", "z".getBytes(), 0, 1)));
+
+        assertArrayEquals(new Exception[5], failures);
+        assertEquals(1, fs.getJournal().getCommitCount() - commits);
+        assertArrayEquals(big, fs.readFile("one"));
+        assertEquals("xyz", new String(fs.readFile("two")));
+
+        failures = fs.batch(List.of(BatchOperation.delete("one"), BatchOperation.delete("two")));
+        assertArrayEquals(new Exception[2], failures);
+        assertFalse(Arrays.asList(fs.listFiles()).contains("one"));
+    }
+
+    @Test
+    void testFailureOnlyAffectsItsOwnOperation() throws Exception {
+        fs.createFile("kept");
+        Exception[] failures = fs.batch(List.of(
+                BatchOperation.create("kept"),
+                BatchOperation.write("missing", new byte[10], 0, 10),
+                BatchOperation.write("kept", "data".getBytes(), 0, 4),
+                BatchOperation.create("fresh"),
+                BatchOperation.delete("fresh")));
+
+        assertNull(failures[0], "Creating an existing file leaves it as it is");
+        assertNotNull(failures[1], "The file does not exist");
+        assertNull(failures[2]);
+        assertNull(failures[3]);
+        assertNull(failures[4]);
+        assertEquals("data", new String(fs.readFile("kept")));
+        assertFalse(Arrays.asList(fs.listFiles()).contains("fresh"));
+        fs.deleteFile("kept");
+    }
+
+    @Test
+    void testFailedWriteKeepsOtherFilesBlocks() throws Exception {
+        fs.close(); // Only one volume can be mounted at a time
+        FileSystemManager small = new FileSystemManager(dir.resolve("small.dat").toString(),
+                new FileSystemOptions().totalSize(16 * 128).maxFiles(4).cacheBytes(0).format(true));
+        try {
+            byte[] a = new byte[5 * 128];
+            Arrays.fill(a, (byte) 'a');
+            small.createFile("a");
+            small.writeFile("a", a);
+            small.createFile("b");
+            small.writeFile("b", new byte[3 * 128]);
+
+            Exception[] failures = small.batch(List.of(
+                    BatchOperation.write("a", new byte[100 * 128], 0, 100 * 128),
+                    BatchOperation.write("b", "b".getBytes(), 0, 1)));
+            assertNotNull(failures[0], "There is no room for the first write");
+            assertNull(failures[1]);
+            assertArrayEquals(a, small.readFile("a"));
+            assertEquals("b", new String(small.readFile("b")));
+
+            // b gave back two blocks and a kept all five: exactly ten are free
+            small.createFile("fill");
+            assertThrows(Exception.class, () -> small.writeFile("fill", new byte[11 * 128]));
+            small.writeFile("fill", new byte[10 * 128]);
+            assertArrayEquals(a, small.readFile("a"));
+        } finally {
+            small.close();
+            fs = open(false);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+import helpers.BinaryConnection;
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static helpers.BinaryConnection.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryProtocolTests {
+
+    static ServerRunner server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        // Every non-empty READ takes the zero-copy path
+        server = new ServerRunner("-Dserver.zeroCopyMinBytes=1");
+        server.start();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    @Timeout(10)
+    void testRawBytesRoundTrip() throws Exception {
+        byte[] content = new byte[10_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        try (BinaryConnection connection = new BinaryConnection()) {
+            assertEquals(0, connection.call(CREATE, "bin", new byte[0])[0]);
+            assertEquals(0, connection.call(WRITE, "bin", content)[0]);
+            byte[] read = connection.call(READ, "bin", new byte[0]);
+            assertEquals(0, read[0]);
+            assertArrayEquals(content, Arrays.copyOfRange(read, 1, read.length));
+
+            assertEquals(0, connection.call(WRITE_AT, "bin", ByteBuffer.allocate(10).putLong(2).put((byte) 'h').put((byte) 'i').array())[0]);
+            byte[] range = connection.call(READ_RANGE, "bin", ByteBuffer.allocate(12).putLong(1).putInt(3).array());
+            assertArrayEquals(new byte[]{0, 1, 'h', 'i'}, range);
+
+            byte[] list = connection.call(LIST, "", new byte[0]);
+            assertTrue(new String(list, StandardCharsets.UTF_8).contains("bin"));
+        }
+        // Both protocols see the same files
+        byte[] viaText = Base64.getDecoder().decode(ClientRunner.send("READ bin"));
+        assertEquals('h', viaText[2]);
+        assertTrue(ClientRunner.send("DELETE bin").startsWith("SUCCESS"));
+    }
+
+    @Test
+    @Timeout(10)
+    void testFragmentedFileIsSentWhole() throws Exception {
+        byte[] expected = new byte[5 * 300];
+        try (BinaryConnection connection = new BinaryConnection()) {
+            connection.call(CREATE, "fragA", new byte[0]);
+            connection.call(CREATE, "fragB", new byte[0]);
+            // Appending to both in turn interleaves their blocks, so each ends up in several extents
+            for (int i = 0; i < 5; i++) {
+                byte[] chunk = new byte[300];
+                Arrays.fill(chunk, (byte) ('a' + i));
+                System.arraycopy(chunk, 0, expected, i * 300, 300);
+                assertEquals(0, connection.call(APPEND, "fragA", chunk)[0]);
+                assertEquals(0, connection.call(APPEND, "fragB", new byte[300])[0]);
+            }
+            byte[] read = connection.call(READ, "fragA", new byte[0]);
+            assertArrayEquals(expected, Arrays.copyOfRange(read, 1, read.length));
+            byte[] range = connection.call(READ_RANGE, "fragA", ByteBuffer.allocate(12).putLong(250).putInt(700).array());
+            assertArrayEquals(Arrays.copyOfRange(expected, 250, 950), Arrays.copyOfRange(range, 1, range.length));
+
+            connection.call(DELETE, "fragA", new byte[0]);
+            connection.call(DELETE, "fragB", new byte[0]);
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testBatchFrame() throws Exception {
+        byte[][] requests = {
+                frame(CREATE, "binbatch", new byte[0]),
+                frame(WRITE, "binbatch", "hello".getBytes(StandardCharsets.UTF_8)),
+                frame(READ, "binbatch", new byte[0]),
+                frame(DELETE, "nosuchfile", new byte[0]),
+        };
+        ByteBuffer args = ByteBuffer.allocate(4 + Arrays.stream(requests).mapToInt(r -> r.length).sum()).putInt(requests.length);
+        for (byte[] request : requests) {
+            args.put(request);
+        }
+        try (BinaryConnection connection = new BinaryConnection()) {
+            ByteBuffer response = ByteBuffer.wrap(connection.call(BATCH, "", args.array()));
+            assertEquals(0, response.get());
+            byte[] statuses = new byte[requests.length];
+            for (int i = 0; i < statuses.length; i++) {
+                int length = response.getInt();
+                statuses[i] = response.get();
+                response.position(response.position() + length - 1);
+            }
+            assertArrayEquals(new byte[]{0, 0, 1, 1}, statuses);
+            assertFalse(response.hasRemaining());
+
+            byte[] read = connection.call(READ, "binbatch", new byte[0]);
+            assertEquals("hello", new String(read, 1, read.length - 1, StandardCharsets.UTF_8));
+            assertEquals(0, connection.call(DELETE, "binbatch", new byte[0])[0]);
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testErrorsAndPipelinedFrames() throws Exception {
+        try (BinaryConnection connection = new BinaryConnection()) {
+            byte[] missing = connection.call(READ, "nosuchfile", new byte[0]);
+            assertEquals(1, missing[0]);
+            assertEquals(1, connection.call((byte) 42, "x", new byte[0])[0]);
+
+            // Three requests in one write come back in order
+            byte[] create = frame(CREATE, "piped", new byte[0]);
+            byte[] append = frame(APPEND, "piped", "abc".getBytes(StandardCharsets.UTF_8));
+            byte[] read = frame(READ, "piped", new byte[0]);
+            ByteBuffer all = ByteBuffer.allocate(create.length + append.length + read.length).put(create).put(append).put(read);
+            connection.out.write(all.array());
+            connection.out.flush();
+            assertEquals(0, connection.response()[0]);
+            assertEquals(0, connection.response()[0]);
+            assertArrayEquals(new byte[]{0, 'a', 'b', 'c'}, connection.response());
+
+            assertEquals(0, connection.call(DELETE, "piped", new byte[0])[0]);
+            assertEquals(0, connection.call(QUIT, "", new byte[0])[0]);
+            assertEquals(-1, connection.in.read(), "QUIT should close the connection");
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import ca.concordia.filesystem.datastructures.BlockBitmap;
+import org.junit.jupiter.api.*;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockBitmapTests {
+
+    @Test
+    void testContiguousRunIsPreferred() {
+        BlockBitmap bitmap = new BlockBitmap(200);
+        int[] blocks = new int[3];
+        bitmap.allocate(3, blocks, 0);
+        assertArrayEquals(new int[]{0, 1, 2}, blocks);
+
+        // Leave a 1-block hole behind the cursor; a 70-block request must skip it and cross a word boundary
+        bitmap.markFree(1);
+        int[] big = new int[70];
+        bitmap.allocate(70, big, 0);
+        for (int i = 0; i < big.length; i++) {
+            assertEquals(3 + i, big[i]);
+        }
+        assertEquals(200 - 72, bitmap.getFreeCount());
+    }
+
+    @Test
+    void testFragmentedAllocationUsesEveryFreeBlock() {
+        BlockBitmap bitmap = new BlockBitmap(10);
+        for (int i = 0; i < 10; i += 2) {
+            bitmap.markUsed(i);
+        }
+        int[] blocks = new int[5];
+        bitmap.allocate(5, blocks, 0);
+        assertArrayEquals(new int[]{1, 3, 5, 7, 9}, blocks);
+        assertEquals(0, bitmap.getFreeCount());
+        assertEquals(-1, bitmap.allocate());
+    }
+
+    @Test
+    void testRoundTripThroughBytes() {
+        BlockBitmap bitmap = new BlockBitmap(130);
+        bitmap.markUsed(0);
+        bitmap.markUsed(129);
+        ByteBuffer image = ByteBuffer.allocate(bitmap.byteSize());
+        bitmap.writeTo(image);
+        image.flip();
+
+        BlockBitmap loaded = new BlockBitmap(130);
+        loaded.readFrom(image);
+        assertEquals(128, loaded.getFreeCount());
+        assertFalse(loaded.isFree(129));
+        assertEquals(1, loaded.allocate());
+    }
+}
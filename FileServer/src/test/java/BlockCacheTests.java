@@ -0,0 +1,78 @@
+import ca.concordia.filesystem.BlockCache;
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockCacheTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testClockSparesReferencedBlocks() {
+        BlockCache cache = new BlockCache(3);
+        cache.put(1, new byte[]{1});
+        cache.put(2, new byte[]{2});
+        cache.put(3, new byte[]{3});
+        assertNotNull(cache.get(1));
+
+        // Block 1 was referenced, so the hand passes it and evicts 2
+        cache.put(4, new byte[]{4});
+        assertNotNull(cache.get(1));
+        assertNull(cache.get(2));
+        assertNotNull(cache.get(4));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void testRepeatedReadsHitAndWritesInvalidate() throws Exception {
+        FileSystemManager fs = new FileSystemManager(dir.resolve("cached.dat").toString(),
+                new FileSystemOptions().totalSize(32 * 128).maxFiles(4).cacheBytes(8 * 128).format(true));
+        try {
+            fs.createFile("hot.txt");
+            fs.writeFile("hot.txt", "first version ".repeat(20).getBytes());
+            for (int i = 0; i < 10; i++) {
+                fs.readFile("hot.txt", 0, 100);
+            }
+            BlockCache cache = fs.getBlockCache();
+            assertEquals(8, cache.getCapacity());
+            assertEquals(1, cache.getMisses());
+            assertEquals(9, cache.getHits());
+
+            fs.writeFile("hot.txt", 100, "SECOND".getBytes());
+            assertEquals("first version ".repeat(20).substring(0, 100) + "SECOND",
+                    new String(fs.readFile("hot.txt", 0, 106)));
+        } finally {
+            fs.close();
+        }
+    }
+
+    @Test
+    void testMultiBlockReadsBypassTheCache() throws Exception {
+        FileSystemManager fs = new FileSystemManager(dir.resolve("scan.dat").toString(),
+                new FileSystemOptions().totalSize(32 * 128).maxFiles(4).cacheBytes(8 * 128).format(true));
+        try {
+            byte[] content = "scanned ".repeat(64).getBytes();
+            fs.createFile("big.txt");
+            fs.writeFile("big.txt", content);
+            fs.readFile("big.txt", 0, 10);
+            assertArrayEquals(content, fs.readFile("big.txt"));
+            fs.readFile("big.txt", new ByteArrayOutputStream());
+
+            // Only the one-block read touched the cache, so its block is all it holds
+            BlockCache cache = fs.getBlockCache();
+            assertEquals(1, cache.getMisses() + cache.getHits());
+            assertEquals(1, cache.size());
+        } finally {
+            fs.close();
+        }
+    }
+}
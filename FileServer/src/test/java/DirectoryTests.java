@@ -0,0 +1,146 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DirectoryTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testNestedDirectoriesSurviveRemount() throws Exception {
+        String image = dir.resolve("fs.dat").toString();
+        FileSystemOptions options = new FileSystemOptions().totalSize(64 * 128).maxFiles(16);
+        String longName = "a name well past the old eleven byte limit.txt";
+
+        FileSystemManager fs = new FileSystemManager(image, options.format(true));
+        fs.createDirectory("docs");
+        fs.createDirectory("docs/drafts");
+        fs.createFile("docs/drafts/" + longName);
+        fs.writeFile("docs/drafts/" + longName, "nested".getBytes());
+        fs.createFile("docs/b.txt");
+        fs.createFile("top.txt");
+        fs.close();
+
+        fs = new FileSystemManager(image, options.format(false));
+        try {
+            assertArrayEquals(new String[]{"docs/", "top.txt"}, fs.listFiles());
+            assertArrayEquals(new String[]{"b.txt", "drafts/"}, fs.listDirectory("docs"));
+            assertArrayEquals(new String[]{longName}, fs.listDirectory("docs/drafts"));
+            assertArrayEquals(new String[]{"docs/drafts/"}, fs.listDirectory("docs/d", null, 10));
+            assertArrayEquals(new String[]{"docs/drafts/"}, fs.listDirectory("docs/", "docs/b.txt", 10));
+            assertEquals("nested", new String(fs.readFile("docs/drafts/" + longName)));
+        } finally {
+            fs.close();
+        }
+    }
+
+    @Test
+    void testDirectoryRules() throws Exception {
+        FileSystemManager fs = new FileSystemManager(dir.resolve("rules.dat").toString(),
+                new FileSystemOptions().totalSize(64 * 128).maxFiles(8).format(true));
+        try {
+            assertThrows(Exception.class, () -> fs.createFile("missing/a.txt"));
+            assertThrows(Exception.class, () -> fs.createDirectory("/abs"));
+            assertThrows(Exception.class, () -> fs.createDirectory("a//b"));
+            assertThrows(Exception.class, () -> fs.createDirectory(".."));
+
+            fs.createDirectory("d");
+            assertThrows(Exception.class, () -> fs.createDirectory("d"));
+            assertThrows(Exception.class, () -> fs.createFile("d"), "A file cannot take a directory's path");
+            assertThrows(Exception.class, () -> fs.readFile("d"), "A directory is not a file");
+
+            fs.createFile("d/f");
+            Exception ex = assertThrows(Exception.class, () -> fs.deleteDirectory("d"));
+            assertTrue(ex.getMessage().contains("not empty"));
+            fs.deleteFile("d/f");
+            fs.deleteDirectory("d");
+            assertArrayEquals(new String[0], fs.listFiles());
+            assertThrows(Exception.class, () -> fs.listDirectory("d"));
+        } finally {
+            fs.close();
+        }
+    }
+
+    @Test
+    void testDirectoryCommands() throws Exception {
+        ServerRunner server = new ServerRunner();
+        server.start();
+        try {
+            assertEquals("SUCCESS: Directory 'logs' created.", ClientRunner.send("MKDIR logs"));
+            assertTrue(ClientRunner.send("CREATE logs/today.log").startsWith("SUCCESS"));
+            ClientRunner.send("WRITE logs/today.log " + Base64.getEncoder().encodeToString("entry".getBytes()));
+            assertEquals("entry", new String(Base64.getDecoder().decode(ClientRunner.send("READ logs/today.log"))));
+            assertEquals("logs/today.log", ClientRunner.send("LIST logs/"));
+            assertTrue(ClientRunner.send("RMDIR logs").startsWith("ERROR"));
+            ClientRunner.send("DELETE logs/today.log");
+            assertEquals("SUCCESS: Directory 'logs' deleted.", ClientRunner.send("RMDIR logs"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void testListPagesWithCursor() throws Exception {
+        ServerRunner server = new ServerRunner();
+        server.start();
+        try (Socket socket = new Socket("localhost", 12345);
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+            out.println("MKDIR pages");
+            in.readLine();
+            for (String name : new String[]{"e", "a", "d", "b", "c"}) {
+                out.println("CREATE pages/" + name);
+                assertTrue(in.readLine().startsWith("SUCCESS"));
+            }
+
+            List<String> listed = new ArrayList<>();
+            String cursor = "-";
+            int pages = 0;
+            while (cursor != null) {
+                out.println("LIST pages/ " + cursor + " 2");
+                cursor = null;
+                for (String line = in.readLine(); !line.isEmpty(); line = in.readLine()) {
+                    if (line.startsWith("NEXT ")) {
+                        cursor = line.substring(5);
+                    } else {
+                        listed.add(line);
+                    }
+                }
+                pages++;
+            }
+            assertEquals(List.of("pages/a", "pages/b", "pages/c", "pages/d", "pages/e"), listed);
+            assertEquals(3, pages);
+
+            out.println("LIST /pages/c");
+            assertEquals("pages/c", in.readLine());
+            assertEquals("", in.readLine());
+            out.println("LIST pages/ not-a-cursor!");
+            assertTrue(in.readLine().startsWith("ERROR"));
+            out.println("LIST pages/ - 0");
+            assertTrue(in.readLine().startsWith("ERROR"));
+            for (String name : listed) {
+                out.println("DELETE " + name);
+                in.readLine();
+            }
+            out.println("RMDIR pages");
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+        } finally {
+            server.stop();
+        }
+    }
+}
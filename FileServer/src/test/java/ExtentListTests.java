@@ -0,0 +1,46 @@
+import ca.concordia.filesystem.datastructures.ExtentList;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExtentListTests {
+
+    @Test
+    void testConsecutiveBlocksMergeIntoOneExtent() {
+        ExtentList extents = ExtentList.of(4, 1).append(new int[]{5, 6, 7, 20, 21, 9}, 0, 6);
+        assertEquals(3, extents.size());
+        assertEquals(7, extents.blockCount());
+        assertEquals(4, extents.start(0));
+        assertEquals(4, extents.length(0));
+        assertEquals(20, extents.next(0));
+        assertEquals(2, extents.length(1));
+        assertEquals(-1, extents.next(2));
+    }
+
+    @Test
+    void testBlockLookupAcrossExtents() {
+        ExtentList extents = ExtentList.of(new int[]{10, 50, 3}, new int[]{3, 1, 4}, 3);
+        int[] expected = {10, 11, 12, 50, 3, 4, 5, 6};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], extents.blockAt(i), "file block " + i);
+        }
+        assertEquals(1, extents.extentAt(3));
+        assertEquals(4, extents.firstFileBlock(2));
+        assertThrows(IndexOutOfBoundsException.class, () -> extents.blockAt(8));
+    }
+
+    @Test
+    void testTruncateKeepsUnchangedRecords() {
+        ExtentList extents = ExtentList.of(new int[]{10, 50, 3}, new int[]{3, 1, 4}, 3);
+        ExtentList shorter = extents.truncate(2);
+        assertEquals(1, shorter.size());
+        assertEquals(2, shorter.length(0));
+        assertFalse(shorter.sameRecord(0, extents));
+
+        ExtentList middle = extents.truncate(4);
+        assertEquals(2, middle.size());
+        assertTrue(middle.sameRecord(0, extents));
+        assertFalse(middle.sameRecord(1, extents), "The last extent now ends the list");
+        assertSame(ExtentList.EMPTY, extents.truncate(0));
+    }
+}
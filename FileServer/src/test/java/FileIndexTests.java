@@ -0,0 +1,39 @@
+import ca.concordia.filesystem.datastructures.FileIndex;
+import org.junit.jupiter.api.*;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileIndexTests {
+
+    @Test
+    void testFindAfterPutAndRemove() {
+        FileIndex index = new FileIndex(64);
+        for (int i = 0; i < 64; i++) {
+            int slot = index.allocateSlot();
+            assertEquals(i, slot);
+            index.put(slot, ("f" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(-1, index.allocateSlot());
+
+        // Removing every other name must keep the rest reachable through their probe runs
+        for (int i = 0; i < 64; i += 2) {
+            index.remove(index.find("f" + i));
+        }
+        for (int i = 0; i < 64; i++) {
+            assertEquals(i % 2 == 0 ? -1 : i, index.find("f" + i));
+        }
+        assertEquals(32, index.size());
+    }
+
+    @Test
+    void testByteAndStringLookupsAgree() {
+        FileIndex index = new FileIndex(4);
+        index.put(index.allocateSlot(), "café".getBytes(StandardCharsets.UTF_8));
+        byte[] framed = "READ café".getBytes(StandardCharsets.UTF_8);
+        assertEquals(0, index.find("café"));
+        assertEquals(0, index.find(framed, 5, framed.length - 5));
+        assertEquals(-1, index.find("cafe"));
+    }
+}
@@ -1,4 +1,5 @@
 import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.datastructures.FEntry;
 import org.junit.jupiter.api.*;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -8,9 +9,15 @@ public class FileSystemTests {
 
     @BeforeAll
     static void setup() throws Exception {
+        FileSystemManager.format("testfs.dat", 10 * 128, 128, 5);
         fs = new FileSystemManager("testfs.dat", 10 * 128);
     }
 
+    @AfterAll
+    static void teardown() throws Exception {
+        fs.close();
+    }
+
     @Test
     void testCreateFile() throws Exception {
         fs.createFile("a.txt");
@@ -25,8 +32,11 @@ public class FileSystemTests {
     }
 
     @Test
-    void testTooLongFilename() {
-        Exception ex = assertThrows(Exception.class, () -> fs.createFile("verylongname.txt"));
+    void testTooLongFilename() throws Exception {
+        // Names are no longer held to 11 bytes, only each path component to FEntry.NAME_SIZE
+        fs.createFile("verylongname.txt");
+        fs.deleteFile("verylongname.txt");
+        Exception ex = assertThrows(Exception.class, () -> fs.createFile("n".repeat(FEntry.NAME_SIZE + 1)));
         assertTrue(ex.getMessage().toLowerCase().contains("filename"));
         assertTrue(ex.getMessage().toLowerCase().contains("long"));
     }
@@ -46,6 +56,28 @@ public class FileSystemTests {
         assertEquals(longContent, new String(fs.readFile("c.txt")));
     }
 
+    @Test
+    void testAppendFile() throws Exception {
+        fs.createFile("d.txt");
+        fs.appendFile("d.txt", "hello".getBytes());
+        fs.appendFile("d.txt", " world".getBytes());
+        String tail = " and more past the first block.".repeat(6);
+        fs.appendFile("d.txt", tail.getBytes());
+        assertEquals("hello world" + tail, new String(fs.readFile("d.txt")));
+    }
+
+    @Test
+    void testOverwriteShrinksAndGrows() throws Exception {
+        fs.createFile("e.txt");
+        String three = "x".repeat(300);
+        fs.writeFile("e.txt", three.getBytes());
+        fs.writeFile("e.txt", "short".getBytes());
+        assertEquals("short", new String(fs.readFile("e.txt")));
+        String two = "y".repeat(200);
+        fs.writeFile("e.txt", two.getBytes());
+        assertEquals(two, new String(fs.readFile("e.txt")));
+    }
+
     @Test
     void testDeleteFile() throws Exception {
         fs.createFile("b.txt");
@@ -0,0 +1,144 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import ca.concordia.filesystem.MetadataJournal;
+import ca.concordia.filesystem.StorageBackend;
+import ca.concordia.filesystem.Transaction;
+import ca.concordia.filesystem.datastructures.Superblock;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournalTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testCommittedRecordsAreReplayed() throws Exception {
+        Path image = dir.resolve("journal.dat");
+        try (RandomAccessFile file = new RandomAccessFile(image.toFile(), "rw")) {
+            file.setLength(64 * 1024);
+        }
+
+        StorageBackend storage = StorageBackend.open(image.toString(), StorageBackend.Kind.RANDOM_ACCESS);
+        MetadataJournal journal = new MetadataJournal(storage, 0, 16 * 1024, MetadataJournal.Durability.GROUP_COMMIT, 0);
+        assertTrue(journal.recover(), "A zeroed journal region is a clean volume");
+        Transaction tx = new Transaction();
+        tx.writeInt(32 * 1024, 42);
+        tx.writeInt(32 * 1024 + 4, 43);
+        journal.commit(tx);
+        assertEquals(42, storage.readInt(32 * 1024));
+
+        // Crash after the commit record but before the home write reached the disk
+        storage.writeInt(32 * 1024, 0);
+        storage.writeInt(32 * 1024 + 4, 0);
+        storage.close();
+
+        storage = StorageBackend.open(image.toString(), StorageBackend.Kind.RANDOM_ACCESS);
+        journal = new MetadataJournal(storage, 0, 16 * 1024, MetadataJournal.Durability.GROUP_COMMIT, 0);
+        try {
+            assertFalse(journal.recover(), "The volume was never closed");
+            assertEquals(42, storage.readInt(32 * 1024));
+            assertEquals(43, storage.readInt(32 * 1024 + 4));
+        } finally {
+            journal.close();
+            storage.close();
+        }
+    }
+
+    @Test
+    void testUncleanMountRebuildsBitmap() throws Exception {
+        String image = dir.resolve("fs.dat").toString();
+        Path crashed = dir.resolve("crashed.dat");
+        FileSystemOptions options = new FileSystemOptions().totalSize(32 * 128).maxFiles(8);
+        byte[] content = "survives a crash ".repeat(30).getBytes();
+
+        FileSystemManager fs = new FileSystemManager(image, options.format(true));
+        try {
+            fs.createFile("keep.txt");
+            fs.writeFile("keep.txt", content);
+            // Snapshot the image as a crash would leave it: mounted, never closed
+            Files.copy(Path.of(image), crashed);
+        } finally {
+            fs.close();
+        }
+
+        // The bitmap is not journaled; pretend it never reached the disk
+        Superblock layout = Superblock.forVolume(32 * 128, 128, 8);
+        try (RandomAccessFile file = new RandomAccessFile(crashed.toFile(), "rw")) {
+            file.seek(layout.getBitmapOffset());
+            file.write(new byte[Long.BYTES]);
+        }
+
+        FileSystemManager remounted = new FileSystemManager(crashed.toString(), options.format(false));
+        try {
+            assertArrayEquals(content, remounted.readFile("keep.txt"));
+            // Every block keep.txt does not use is free again, and none of its own are
+            remounted.createFile("fill.txt");
+            remounted.writeFile("fill.txt", new byte[(32 - 4) * 128]);
+            assertThrows(Exception.class, () -> remounted.writeFile("fill.txt", new byte[(32 - 3) * 128]));
+            assertArrayEquals(content, remounted.readFile("keep.txt"));
+        } finally {
+            remounted.close();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(MetadataJournal.Durability.class)
+    void testConcurrentCommitsSurviveRemount(MetadataJournal.Durability durability) throws Exception {
+        String image = dir.resolve("concurrent.dat").toString();
+        FileSystemOptions options = new FileSystemOptions().totalSize(256 * 128).maxFiles(64).durability(durability);
+        int threads = 8;
+        int filesPerThread = 4;
+
+        FileSystemManager fs = new FileSystemManager(image, options.format(true));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                results.add(pool.submit(() -> {
+                    for (int i = 0; i < filesPerThread; i++) {
+                        String name = "t" + thread + "f" + i;
+                        fs.createFile(name);
+                        fs.writeFile(name, (name + " ").repeat(40).getBytes());
+                        fs.writeFile(name, (name + "!").repeat(30).getBytes());
+                    }
+                    fs.deleteFile("t" + thread + "f0");
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdown();
+            fs.close();
+        }
+
+        FileSystemManager remounted = new FileSystemManager(image, options.format(false));
+        try {
+            assertEquals(threads * (filesPerThread - 1), remounted.listFiles().length);
+            for (int t = 0; t < threads; t++) {
+                for (int i = 1; i < filesPerThread; i++) {
+                    String name = "t" + t + "f" + i;
+                    assertEquals((name + "!").repeat(30), new String(remounted.readFile(name)));
+                }
+            }
+        } finally {
+            remounted.close();
+        }
+    }
+}
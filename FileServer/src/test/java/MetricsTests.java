@@ -0,0 +1,80 @@
+import ca.concordia.monitoring.LatencyHistogram;
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTests {
+
+    static ServerRunner server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new ServerRunner();
+        server.start();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    void testHistogramPercentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000_000, histogram.getMax());
+        assertEquals(50_000_500, histogram.getMean());
+        // Buckets are 1/16 of a power of two wide, so a percentile is at most that far above the true value
+        assertEquals(50_000_000, histogram.getPercentile(0.5), 50_000_000 / 16.0);
+        assertEquals(99_000_000, histogram.getPercentile(0.99), 99_000_000 / 16.0);
+        assertTrue(histogram.getPercentile(0.99) >= 99_000_000);
+        assertEquals(100_000_000, histogram.getPercentile(1.0));
+
+        LatencyHistogram small = new LatencyHistogram();
+        small.record(3);
+        assertEquals(3, small.getPercentile(0.5), "Small values are exact");
+        assertEquals(0, new LatencyHistogram().getPercentile(0.99));
+    }
+
+    @Test
+    @Timeout(10)
+    void testStatsCountsCommands() throws Exception {
+        Map<String, Long> before = stats();
+        ClientRunner.send("CREATE metered");
+        ClientRunner.send("WRITE metered aGk=");
+        ClientRunner.send("READ nosuchfile");
+        ClientRunner.send("FROB metered");
+        Map<String, Long> after = stats();
+
+        assertEquals(1, after.get("CREATE.count") - before.getOrDefault("CREATE.count", 0L));
+        assertEquals(1, after.get("WRITE.count") - before.getOrDefault("WRITE.count", 0L));
+        assertEquals(1, after.get("READ.errors") - before.getOrDefault("READ.errors", 0L));
+        assertEquals(1, after.get("UNKNOWN.count") - before.getOrDefault("UNKNOWN.count", 0L));
+        assertFalse(after.containsKey("FROB.count"), "Unknown commands must not add entries");
+        assertTrue(after.get("connections.total") - before.get("connections.total") >= 4);
+        assertTrue(after.get("bytes.in") > before.get("bytes.in"));
+        assertTrue(after.get("bytes.out") > before.get("bytes.out"));
+        assertTrue(after.get("WRITE.maxUs") >= after.get("WRITE.p50us"));
+        ClientRunner.send("DELETE metered");
+    }
+
+    private static Map<String, Long> stats() throws Exception {
+        Map<String, Long> values = new HashMap<>();
+        for (String pair : ClientRunner.send("STATS").split(" ")) {
+            String[] keyValue = pair.split("=", 2);
+            values.put(keyValue[0], Long.parseLong(keyValue[1]));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,84 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MountTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testDataSurvivesRemount() throws Exception {
+        String image = dir.resolve("fs.dat").toString();
+        FileSystemOptions options = new FileSystemOptions().totalSize(64 * 128).maxFiles(8);
+        String longContent = "persisted across a remount ".repeat(20);
+
+        FileSystemManager fs = new FileSystemManager(image, options.format(true));
+        fs.createFile("keep.txt");
+        fs.writeFile("keep.txt", longContent.getBytes());
+        fs.createFile("gone.txt");
+        fs.deleteFile("gone.txt");
+        fs.close();
+
+        fs = new FileSystemManager(image, options.format(false));
+        try {
+            assertArrayEquals(new String[]{"keep.txt"}, fs.listFiles());
+            assertEquals(longContent, new String(fs.readFile("keep.txt")));
+
+            // The free bitmap was restored too: new files must not reuse keep.txt's blocks
+            fs.createFile("new.txt");
+            fs.writeFile("new.txt", new byte[20 * 128]);
+            assertEquals(longContent, new String(fs.readFile("keep.txt")));
+        } finally {
+            fs.close();
+        }
+    }
+
+    @Test
+    void testFragmentedFileSurvivesRemount() throws Exception {
+        String image = dir.resolve("fragmented.dat").toString();
+        FileSystemOptions options = new FileSystemOptions().totalSize(64 * 128).maxFiles(8);
+        byte[] content = new byte[12 * 128];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+
+        FileSystemManager fs = new FileSystemManager(image, options.format(true));
+        // Interleave two files so that appending to the first leaves it in several extents
+        fs.createFile("a.txt");
+        fs.createFile("b.txt");
+        for (int i = 0; i < 4; i++) {
+            fs.appendFile("a.txt", Arrays.copyOfRange(content, i * 3 * 128, (i + 1) * 3 * 128));
+            fs.appendFile("b.txt", new byte[2 * 128]);
+        }
+        fs.close();
+
+        fs = new FileSystemManager(image, options.format(false));
+        try {
+            assertArrayEquals(content, fs.readFile("a.txt"));
+            assertArrayEquals(Arrays.copyOfRange(content, 5 * 128 + 7, 9 * 128), fs.readFile("a.txt", 5 * 128 + 7, 4 * 128 - 7));
+        } finally {
+            fs.close();
+        }
+    }
+
+    @Test
+    void testUnformattedImageIsNotWiped() throws Exception {
+        Path image = dir.resolve("legacy.dat");
+        byte[] legacy = new byte[1408];
+        Arrays.fill(legacy, (byte) 7);
+        Files.write(image, legacy);
+
+        assertFalse(FileSystemManager.isFormatted(image.toString()));
+        assertThrows(IOException.class, () -> new FileSystemManager(image.toString(), new FileSystemOptions()));
+        assertArrayEquals(legacy, Files.readAllBytes(image));
+    }
+}
@@ -0,0 +1,159 @@
+import helpers.BinaryConnection;
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioServerTests {
+
+    static ServerRunner server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new ServerRunner("-Dserver.mode=nio", "-Dserver.eventLoops=2", "-Dserver.workerThreads=4",
+                "-Dserver.zeroCopyMinBytes=1024");
+        server.start();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    @Timeout(10)
+    void testChunkedUploadAndDownload() throws Exception {
+        byte[] content = new byte[20_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 7);
+        }
+        try (Socket socket = new Socket("localhost", 12345);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            out.println("CREATE niochunk");
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            out.println("UPLOAD niochunk");
+            for (int i = 0; i < content.length; i += 7000) {
+                out.println(Base64.getEncoder().encodeToString(Arrays.copyOfRange(content, i, Math.min(content.length, i + 7000))));
+            }
+            out.println();
+            assertEquals("SUCCESS: Wrote 20000 bytes to 'niochunk'.", in.readLine());
+
+            out.println("DOWNLOAD niochunk");
+            ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+            for (String line = in.readLine(); !line.isEmpty(); line = in.readLine()) {
+                downloaded.write(Base64.getDecoder().decode(line));
+            }
+            assertArrayEquals(content, downloaded.toByteArray());
+
+            // A bad chunk fails the upload without the rest of it being taken for commands
+            out.println("UPLOAD niochunk");
+            out.println("not base64!");
+            out.println("LIST");
+            out.println();
+            assertTrue(in.readLine().startsWith("ERROR"));
+            out.println("DOWNLOAD nosuchfile");
+            assertTrue(in.readLine().startsWith("ERROR"));
+            out.println("DELETE niochunk");
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+        }
+    }
+
+    @Test
+    void testCommandSetIsUnchanged() throws Exception {
+        assertTrue(ClientRunner.send("CREATE nio").startsWith("SUCCESS"));
+        assertTrue(ClientRunner.send("WRITE nio " + Base64.getEncoder().encodeToString("event loop".getBytes())).startsWith("SUCCESS"));
+        assertEquals("event loop", new String(Base64.getDecoder().decode(ClientRunner.send("READ nio"))));
+        assertTrue(ClientRunner.send("BADCOMMAND").startsWith("ERROR"));
+        assertTrue(ClientRunner.send("DELETE nio").startsWith("SUCCESS"));
+    }
+
+    @Test
+    @Timeout(10)
+    void testPipelinedAndSplitLinesAnswerInOrder() throws Exception {
+        byte[] content = new byte[30 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        byte[] write = ("WRITE piped " + Base64.getEncoder().encodeToString(content) + "\n").getBytes(StandardCharsets.UTF_8);
+
+        try (Socket socket = new Socket("localhost", 12345);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            OutputStream out = socket.getOutputStream();
+            // Several commands in one packet, then a long one dribbled out a little at a time
+            out.write("CREATE piped\nREAD piped\nREAD nosuchfile\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            assertEquals("", in.readLine());
+            assertTrue(in.readLine().startsWith("ERROR"));
+
+            for (int i = 0; i < write.length; i += 1000) {
+                out.write(write, i, Math.min(1000, write.length - i));
+                out.flush();
+            }
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            out.write("READ piped\nDELETE piped\nQUIT\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            assertArrayEquals(content, Base64.getDecoder().decode(in.readLine()));
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            assertNull(in.readLine(), "QUIT should close the connection");
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testBinaryFramesSplitAcrossReads() throws Exception {
+        byte[] content = new byte[30 * 1024];
+        Arrays.fill(content, (byte) 7);
+        try (BinaryConnection connection = new BinaryConnection()) {
+            assertEquals(0, connection.call(BinaryConnection.CREATE, "nio-bin", new byte[0])[0]);
+            byte[] write = BinaryConnection.frame(BinaryConnection.WRITE, "nio-bin", content);
+            for (int i = 0; i < write.length; i += 1000) {
+                connection.out.write(write, i, Math.min(1000, write.length - i));
+                connection.out.flush();
+            }
+            assertEquals(0, connection.response()[0]);
+            byte[] read = connection.call(BinaryConnection.READ, "nio-bin", new byte[0]);
+            assertArrayEquals(content, Arrays.copyOfRange(read, 1, read.length));
+            assertEquals(0, connection.call(BinaryConnection.DELETE, "nio-bin", new byte[0])[0]);
+        }
+    }
+
+    @Test
+    @Timeout(15)
+    void testManyIdleConnectionsStayServed() throws Exception {
+        List<Socket> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 500; i++) {
+                idle.add(new Socket("localhost", 12345));
+            }
+            assertNotNull(ClientRunner.send("LIST"));
+            for (Socket socket : idle.subList(0, 10)) {
+                socket.getOutputStream().write("LIST\n".getBytes(StandardCharsets.UTF_8));
+                assertNotNull(new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine());
+            }
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+    }
+}
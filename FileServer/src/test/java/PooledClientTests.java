@@ -0,0 +1,122 @@
+import ca.concordia.client.BinaryClient;
+import ca.concordia.client.ClientOptions;
+import ca.concordia.client.PooledClient;
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PooledClientTests {
+
+    static ServerRunner server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new ServerRunner();
+        server.start();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    @Timeout(10)
+    void testConnectionsAreReused() throws Exception {
+        try (PooledClient client = ClientRunner.pooled(4)) {
+            client.create("pooled");
+            for (int i = 0; i < 50; i++) {
+                client.append("pooled", new byte[]{(byte) i});
+            }
+            assertEquals(50, client.read("pooled").length);
+            assertTrue(client.list().contains("pooled"));
+            // An error response leaves the connection usable
+            assertThrows(IOException.class, () -> client.read("nosuchfile"));
+            client.delete("pooled");
+            assertEquals(1, client.getConnectionsOpened());
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testAsyncRequestsShareThePool() throws Exception {
+        try (PooledClient client = ClientRunner.pooled(3)) {
+            List<CompletableFuture<String>> writes = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                String name = "async" + i;
+                byte[] content = name.getBytes(StandardCharsets.UTF_8);
+                writes.add(client.createAsync(name).thenCompose(created -> client.writeAsync(name, content)));
+            }
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).get();
+            for (int i = 0; i < 12; i++) {
+                assertEquals("async" + i, new String(client.readAsync("async" + i).get(), StandardCharsets.UTF_8));
+                client.deleteAsync("async" + i).get();
+            }
+            assertTrue(client.getConnectionsOpened() <= 3);
+
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> client.readAsync("nosuchfile").get());
+            assertInstanceOf(IOException.class, failure.getCause());
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testPipelineAndBatch() throws Exception {
+        try (PooledClient client = ClientRunner.pooled(2)) {
+            List<BinaryClient.Reply> replies = client.pipeline(p -> p.create("pipe")
+                    .write("pipe", "abc".getBytes(StandardCharsets.UTF_8)).read("pipe"), false);
+            assertEquals("abc", replies.get(2).message());
+
+            replies = client.pipeline(p -> p.append("pipe", "d".getBytes(StandardCharsets.UTF_8))
+                    .delete("nosuchfile").delete("pipe"), true);
+            assertTrue(replies.get(0).isOk());
+            assertFalse(replies.get(1).isOk());
+            assertTrue(replies.get(2).isOk());
+        }
+    }
+
+    @Test
+    @Timeout(value = 30, threadMode = Timeout.ThreadMode.SEPARATE_THREAD) // A deadlock blocks in socket I/O, which ignores interrupts
+    void testLongPipelineDoesNotDeadlock() throws Exception {
+        // Megabytes each way: more than the socket buffers hold, so requests and replies must overlap
+        byte[] chunk = new byte[16 * 1024];
+        Arrays.fill(chunk, (byte) 'p');
+        try (PooledClient client = ClientRunner.pooled(1)) {
+            client.create("longpipe");
+            List<BinaryClient.Reply> replies = client.pipeline(p -> {
+                for (int i = 0; i < 2000; i++) {
+                    p.write("longpipe", chunk).read("longpipe");
+                }
+            }, false);
+            assertEquals(4000, replies.size());
+            assertTrue(replies.stream().allMatch(BinaryClient.Reply::isOk));
+            assertArrayEquals(chunk, replies.get(3999).body());
+            client.delete("longpipe");
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testWaitingForAConnectionTimesOut() throws Exception {
+        ClientOptions options = new ClientOptions().maxConnections(1).requestTimeoutMillis(200);
+        try (PooledClient client = new PooledClient(options)) {
+            // The only connection is held by the outer request, so the inner one cannot get one
+            client.execute(held -> assertThrows(SocketTimeoutException.class, client::list));
+            assertNotNull(client.list());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RangedIoTests {
+
+    @TempDir
+    static Path dir;
+
+    static FileSystemManager fs;
+
+    @BeforeAll
+    static void setup() throws Exception {
+        fs = new FileSystemManager(dir.resolve("ranged.dat").toString(),
+                new FileSystemOptions().totalSize(64 * 128).maxFiles(8).format(true));
+    }
+
+    @AfterAll
+    static void teardown() throws Exception {
+        fs.close();
+    }
+
+    @Test
+    void testReadSliceAcrossBlocks() throws Exception {
+        byte[] content = new byte[10 * 128];
+        new Random(3).nextBytes(content);
+        fs.createFile("slice.bin");
+        fs.writeFile("slice.bin", content);
+
+        assertArrayEquals(Arrays.copyOfRange(content, 100, 400), fs.readFile("slice.bin", 100, 300));
+        // Reads stop at the end of the file
+        assertArrayEquals(Arrays.copyOfRange(content, 1200, 1280), fs.readFile("slice.bin", 1200, 500));
+        assertEquals(0, fs.readFile("slice.bin", 5000, 10).length);
+    }
+
+    @Test
+    void testWriteAtOffsetPatchesInPlace() throws Exception {
+        fs.createFile("patch.txt");
+        fs.writeFile("patch.txt", "a".repeat(300).getBytes());
+        fs.writeFile("patch.txt", 126, "XYZW".getBytes());
+
+        String expected = "a".repeat(126) + "XYZW" + "a".repeat(170);
+        assertEquals(expected, new String(fs.readFile("patch.txt")));
+    }
+
+    @Test
+    void testWritePastEndZeroFillsGap() throws Exception {
+        // Truncating leaves stale bytes past the new end, so the gap cannot be zero by accident
+        byte[] junk = new byte[8 * 128];
+        Arrays.fill(junk, (byte) 'j');
+        fs.createFile("sparse.bin");
+        fs.writeFile("sparse.bin", junk);
+        fs.writeFile("sparse.bin", "head".getBytes());
+        fs.writeFile("sparse.bin", 500, "tail".getBytes());
+
+        byte[] data = fs.readFile("sparse.bin");
+        assertEquals(504, data.length);
+        assertEquals("head", new String(data, 0, 4));
+        assertArrayEquals(new byte[496], Arrays.copyOfRange(data, 4, 500));
+        assertEquals("tail", new String(data, 500, 4));
+    }
+}
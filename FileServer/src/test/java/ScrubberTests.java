@@ -0,0 +1,81 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import ca.concordia.filesystem.datastructures.Superblock;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScrubberTests {
+
+    private static final int BLOCKS = 16;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testDeleteOnlyMarksBlocksFree() throws Exception {
+        String image = dir.resolve("lazy.dat").toString();
+        FileSystemManager fs = new FileSystemManager(image,
+                new FileSystemOptions().totalSize(BLOCKS * 128).maxFiles(4).format(true));
+        try {
+            byte[] old = new byte[BLOCKS / 2 * 128];
+            Arrays.fill(old, (byte) 'x');
+            fs.createFile("old.txt");
+            fs.writeFile("old.txt", old);
+            fs.deleteFile("old.txt");
+
+            // Every block is free again, so this takes all of them
+            byte[] big = new byte[BLOCKS * 128 - 128];
+            Arrays.fill(big, (byte) 'y');
+            fs.createFile("new.txt");
+            fs.writeFile("new.txt", big);
+            fs.writeFile("new.txt", "short".getBytes());
+            assertEquals("short", new String(fs.readFile("new.txt")));
+        } finally {
+            fs.close();
+        }
+        assertTrue(dataRegionContains(image, (byte) 'y'), "Freed blocks should not have been zero-filled");
+    }
+
+    @Test
+    void testScrubberErasesFreedBlocks() throws Exception {
+        String image = dir.resolve("scrubbed.dat").toString();
+        FileSystemManager fs = new FileSystemManager(image, new FileSystemOptions()
+                .totalSize(BLOCKS * 128).maxFiles(4).scrubBytesPerSecond(1 << 20).format(true));
+        try {
+            byte[] secret = new byte[BLOCKS / 2 * 128];
+            Arrays.fill(secret, (byte) 'x');
+            fs.createFile("secret.txt");
+            fs.writeFile("secret.txt", secret);
+            fs.deleteFile("secret.txt");
+
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (dataRegionContains(image, (byte) 'x')) {
+                assertTrue(System.currentTimeMillis() < deadline, "Scrubber did not erase the freed blocks");
+                Thread.sleep(20);
+            }
+        } finally {
+            fs.close();
+        }
+    }
+
+    private static boolean dataRegionContains(String image, byte value) throws Exception {
+        long dataOffset = Superblock.forVolume(BLOCKS * 128, 128, 4).getDataOffset();
+        byte[] data = new byte[BLOCKS * 128];
+        try (RandomAccessFile in = new RandomAccessFile(image, "r")) {
+            in.seek(dataOffset);
+            in.readFully(data);
+        }
+        for (byte b : data) {
+            if (b == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
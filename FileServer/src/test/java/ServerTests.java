@@ -5,7 +5,16 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -30,6 +39,81 @@ public class ServerTests {
     }
 
 
+    @Test
+    @Timeout(10)
+    void testPipelinedCommandsAndBatch() throws Exception {
+        // Sent in one write, answered in order
+        String[] replies = ClientRunner.sendAll("CREATE piped", "WRITE piped aGk=", "READ piped", "DELETE piped");
+        assertEquals("SUCCESS: File 'piped' created.", replies[0]);
+        assertEquals("SUCCESS: Wrote 2 bytes to 'piped'.", replies[1]);
+        assertEquals("aGk=", replies[2]);
+        assertEquals("SUCCESS: File 'piped' deleted.", replies[3]);
+
+        try (Socket socket = new Socket("localhost", 12345);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            out.print("BATCH 4\nCREATE batched\nWRITE batched aGk=\nREAD batched\nWRITE nosuchfile aGk=\n");
+            out.println("READ batched");
+            assertEquals("SUCCESS: File 'batched' created.", in.readLine());
+            assertEquals("SUCCESS: Wrote 2 bytes to 'batched'.", in.readLine());
+            assertTrue(in.readLine().startsWith("ERROR"), "READ cannot be batched");
+            assertTrue(in.readLine().startsWith("ERROR"), "A missing file fails only its own line");
+            assertEquals("aGk=", in.readLine());
+            // Batched lines follow the single commands' grammar, case and padding included
+            out.println("BATCH 2");
+            out.println("append  batched IQ==");
+            out.println("WRITE batched 0 SA==");
+            assertEquals("SUCCESS: Appended 1 bytes to 'batched'.", in.readLine());
+            assertEquals("SUCCESS: Wrote 1 bytes to 'batched'.", in.readLine());
+            out.println("READ batched");
+            assertEquals("SGkh", in.readLine()); // "Hi!": the ranged WRITE kept the rest of the file
+            out.println("BATCH 1");
+            out.println("DELETE batched");
+            assertEquals("SUCCESS: File 'batched' deleted.", in.readLine());
+            out.println("BATCH many");
+            assertTrue(in.readLine().startsWith("ERROR"));
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testChunkedUploadAndDownload() throws Exception {
+        byte[] content = new byte[20_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 7);
+        }
+        try (Socket socket = new Socket("localhost", 12345);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            out.println("CREATE chunked");
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+            out.println("UPLOAD chunked");
+            for (int i = 0; i < content.length; i += 7000) {
+                out.println(Base64.getEncoder().encodeToString(Arrays.copyOfRange(content, i, Math.min(content.length, i + 7000))));
+            }
+            out.println();
+            assertEquals("SUCCESS: Wrote 20000 bytes to 'chunked'.", in.readLine());
+
+            out.println("DOWNLOAD chunked");
+            ByteArrayOutputStream downloaded = new ByteArrayOutputStream();
+            for (String line = in.readLine(); !line.isEmpty(); line = in.readLine()) {
+                downloaded.write(Base64.getDecoder().decode(line));
+            }
+            assertArrayEquals(content, downloaded.toByteArray());
+
+            // A bad chunk fails the upload without the rest of it being taken for commands
+            out.println("UPLOAD chunked");
+            out.println("not base64!");
+            out.println("LIST");
+            out.println();
+            assertTrue(in.readLine().startsWith("ERROR"));
+            out.println("DOWNLOAD nosuchfile");
+            assertTrue(in.readLine().startsWith("ERROR"));
+            out.println("DELETE chunked");
+            assertTrue(in.readLine().startsWith("SUCCESS"));
+        }
+    }
+
     @Test
     void testServerRecoversAfterErrorCommand() throws Exception {
         // Send malformed command
@@ -72,22 +156,99 @@ public class ServerTests {
     }
 
     @Test
-    void testServerRestartPersistence() throws Exception {
-        // Step 1: Start server
-        ServerRunner server = new ServerRunner();
-        server.start();
+    void testAppendCommand() throws Exception {
+        ClientRunner.send("CREATE applog");
+        ClientRunner.send("WRITE applog " + Base64.getEncoder().encodeToString("first;".getBytes()));
+        String res = ClientRunner.send("APPEND applog " + Base64.getEncoder().encodeToString("second;".getBytes()));
+        assertTrue(res.startsWith("SUCCESS"), "APPEND failed: " + res);
+
+        String content = new String(Base64.getDecoder().decode(ClientRunner.send("READ applog")));
+        assertEquals("first;second;", content);
+    }
 
-        ClientRunner.send("CREATE persist");
-        ClientRunner.send("WRITE persist saveddata");
-        server.stop();
+    @Test
+    void testRangedReadAndWriteCommands() throws Exception {
+        ClientRunner.send("CREATE ranged");
+        ClientRunner.send("WRITE ranged " + Base64.getEncoder().encodeToString("0123456789".getBytes()));
+        String res = ClientRunner.send("WRITE ranged 4 " + Base64.getEncoder().encodeToString("ab".getBytes()));
+        assertTrue(res.startsWith("SUCCESS"), "Ranged WRITE failed: " + res);
+
+        assertEquals("3ab6", new String(Base64.getDecoder().decode(ClientRunner.send("READ ranged 3 4"))));
+        assertTrue(ClientRunner.send("READ ranged x 4").startsWith("ERROR"));
+    }
+
+    @Test
+    void testCommandSyntaxMatchesJdkBase64() throws Exception {
+        assertEquals("SUCCESS: File 'b64' created.", ClientRunner.send("  create \t b64  "));
+        byte[] data = new byte[10];
+        for (int i = 1; i <= data.length; i++) {
+            data[i - 1] = (byte) (i * 37);
+            String encoded = Base64.getEncoder().encodeToString(Arrays.copyOf(data, i));
+            assertEquals("SUCCESS: Wrote " + i + " bytes to 'b64'.", ClientRunner.send("Write b64 " + encoded));
+            assertEquals(encoded, ClientRunner.send("READ b64"));
+            assertEquals(encoded, ClientRunner.send("READ b64 0 " + i));
+        }
+
+        // The server takes exactly what the JDK decoder takes
+        for (String payload : new String[]{"aGk", "aGk=", "aGk==", "aG==", "aG=", "a", "=", "aGk=aGk=", "aG!k", "aGk= x"}) {
+            boolean valid;
+            try {
+                Base64.getDecoder().decode(payload);
+                valid = true;
+            } catch (IllegalArgumentException e) {
+                valid = false;
+            }
+            String res = ClientRunner.send("APPEND b64 " + payload);
+            assertEquals(valid, res.startsWith("SUCCESS"), payload + " -> " + res);
+        }
+        assertEquals("ERROR: expected READ <filename> [<offset> <length>]", ClientRunner.send("READ b64 0 1 2"));
+        assertEquals("ERROR: invalid length '-1'", ClientRunner.send("READ b64 0 -1"));
+        assertEquals("SUCCESS: File 'b64' deleted.", ClientRunner.send("DELETE b64"));
+    }
 
-        // Step 2: Restart server
-        ServerRunner server2 = new ServerRunner();
-        server2.start();
+    @Test
+    void testCachedReadSeesLaterWrites() throws Exception {
+        ClientRunner.send("CREATE hot");
+        ClientRunner.send("WRITE hot " + Base64.getEncoder().encodeToString("v1".getBytes()));
+        for (int i = 0; i < 3; i++) {
+            assertEquals("v1", new String(Base64.getDecoder().decode(ClientRunner.send("READ hot"))));
+        }
 
-        String response = ClientRunner.send("READ persist");
-        assertTrue(response.contains("saveddata"), "File data not persisted across restart");
+        ClientRunner.send("APPEND hot " + Base64.getEncoder().encodeToString("+v2".getBytes()));
+        assertEquals("v1+v2", new String(Base64.getDecoder().decode(ClientRunner.send("READ hot"))));
+        ClientRunner.send("DELETE hot");
+        assertTrue(ClientRunner.send("READ hot").startsWith("ERROR"));
+    }
 
-        server2.stop();
+    @Test
+    void testServerRestartPersistence() throws Exception {
+        // The class's server holds the port; without stopping it, neither server here could bind
+        server.stop();
+        try {
+            // Step 1: Start server
+            ServerRunner first = new ServerRunner();
+            first.start();
+            try {
+                ClientRunner.send("CREATE persist");
+                String wrote = ClientRunner.send("WRITE persist " + Base64.getEncoder().encodeToString("saveddata".getBytes()));
+                assertTrue(wrote.startsWith("SUCCESS"), wrote);
+            } finally {
+                first.stop();
+            }
+
+            // Step 2: Restart server
+            ServerRunner second = new ServerRunner();
+            second.start();
+            try {
+                String response = ClientRunner.send("READ persist");
+                assertEquals("saveddata", new String(Base64.getDecoder().decode(response)),
+                        "File data not persisted across restart");
+                ClientRunner.send("DELETE persist");
+            } finally {
+                second.stop();
+            }
+        } finally {
+            server.start();
+        }
     }
 }
@@ -0,0 +1,52 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import ca.concordia.filesystem.StorageBackend;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageBackendTests {
+
+    @TempDir
+    Path dir;
+
+    @ParameterizedTest
+    @EnumSource(StorageBackend.Kind.class)
+    void testBackendsAgreeOnReadWrite(StorageBackend.Kind kind) throws Exception {
+        FileSystemManager fs = new FileSystemManager(dir.resolve("image.dat").toString(),
+                new FileSystemOptions().totalSize(1 << 20).blockSize(4096).maxFiles(16).storage(kind).format(true));
+        try {
+            byte[] content = new byte[10_000];
+            new Random(1).nextBytes(content);
+            fs.createFile("data");
+            fs.writeFile("data", content);
+            assertArrayEquals(content, fs.readFile("data"));
+
+            fs.writeFile("data", "short".getBytes());
+            assertEquals("short", new String(fs.readFile("data")));
+        } finally {
+            fs.close();
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(StorageBackend.Kind.class)
+    void testInPlaceFieldUpdates(StorageBackend.Kind kind) throws Exception {
+        Path image = dir.resolve("raw.dat");
+        FileSystemManager.format(image.toString(), 4096, 128, 1);
+        try (StorageBackend storage = StorageBackend.open(image.toString(), kind)) {
+            storage.writeLong(100, 0x0102030405060708L);
+            storage.writeInt(108, -5);
+            assertEquals(0x0102030405060708L, storage.readLong(100));
+            assertEquals(-5, storage.readInt(108));
+            byte[] raw = new byte[2];
+            storage.read(100, raw, 0, 2);
+            assertArrayEquals(new byte[]{1, 2}, raw);
+        }
+    }
+}
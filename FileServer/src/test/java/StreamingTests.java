@@ -0,0 +1,149 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingTests {
+
+    @TempDir
+    static Path dir;
+
+    static FileSystemManager fs;
+
+    @BeforeAll
+    static void setup() throws Exception {
+        // 128-byte blocks: a 64 KB streaming chunk is 512 of them, so large files take several chunks
+        fs = new FileSystemManager(dir.resolve("streaming.dat").toString(),
+                new FileSystemOptions().totalSize(4096 * 128).maxFiles(8).format(true));
+    }
+
+    @AfterAll
+    static void teardown() throws Exception {
+        fs.close();
+    }
+
+    @Test
+    void testStreamedWriteAndReadAcrossChunks() throws Exception {
+        byte[] content = new byte[200_000];
+        new Random(18).nextBytes(content);
+        fs.createFile("big.bin");
+
+        // Hands out a few bytes per read() call, like a socket would
+        InputStream trickle = new ByteArrayInputStream(content) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+        assertEquals(content.length, fs.writeFile("big.bin", trickle));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(content.length, fs.readFile("big.bin", out));
+        assertArrayEquals(content, out.toByteArray());
+        fs.deleteFile("big.bin");
+    }
+
+    @Test
+    void testStreamedWriteReplacesAndAppendExtends() throws Exception {
+        fs.createFile("log.txt");
+        fs.writeFile("log.txt", "x".repeat(1000).getBytes());
+        fs.writeFile("log.txt", new ByteArrayInputStream("first".getBytes()));
+        assertEquals(5, fs.appendFile("log.txt", new ByteArrayInputStream(" more".getBytes())));
+        assertEquals("first more", new String(fs.readFile("log.txt")));
+
+        // An empty stream still replaces the contents
+        fs.writeFile("log.txt", InputStream.nullInputStream());
+        assertEquals(0, fs.readFile("log.txt").length);
+        fs.deleteFile("log.txt");
+    }
+
+    @Test
+    void testMissingFileFailsBeforeWritingAnything() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThrows(Exception.class, () -> fs.readFile("nosuchfile", out));
+        assertEquals(0, out.size());
+        assertThrows(Exception.class, () -> fs.writeFile("nosuchfile", new ByteArrayInputStream(new byte[10])));
+        assertFalse(Arrays.asList(fs.listFiles()).contains("nosuchfile"));
+    }
+
+    @Test
+    @Timeout(10)
+    void testStalledTransfersDoNotHoldTheFileLock() throws Exception {
+        fs.createFile("slow.txt");
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+
+        // A sender that goes quiet before its first byte, like a client that sent UPLOAD and stopped
+        InputStream quiet = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                stalled.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return -1;
+            }
+        };
+        Thread upload = new Thread(() -> {
+            try {
+                fs.writeFile("slow.txt", quiet);
+            } catch (Exception ignored) {
+            }
+        });
+        upload.start();
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+        fs.writeFile("slow.txt", "other".getBytes());
+        assertEquals("other", new String(fs.readFile("slow.txt")));
+        resume.countDown();
+        upload.join();
+
+        // A receiver that stops reading after the first chunk
+        fs.writeFile("slow.txt", new ByteArrayInputStream(new byte[200_000]));
+        CountDownLatch received = new CountDownLatch(1);
+        CountDownLatch drain = new CountDownLatch(1);
+        OutputStream stuck = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                received.countDown();
+                try {
+                    drain.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Thread download = new Thread(() -> {
+            try {
+                fs.readFile("slow.txt", stuck);
+            } catch (Exception ignored) {
+            }
+        });
+        download.start();
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        fs.writeFile("slow.txt", "done".getBytes());
+        drain.countDown();
+        download.join();
+        fs.deleteFile("slow.txt");
+    }
+}
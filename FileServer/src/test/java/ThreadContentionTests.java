@@ -0,0 +1,59 @@
+import helpers.*;
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ThreadContentionTests extends ThreadManagementTests {
+
+    @BeforeAll
+    static void createHotFile() throws Exception {
+        ClientRunner.send("CREATE hot");
+        ClientRunner.send("WRITE hot aG90IGZpbGUgY29udGVudHM=");
+        // Its own file, so that the writes do not depend on which tests ran before
+        ClientRunner.send("DELETE contended");
+        assertTrue(ClientRunner.send("CREATE contended").startsWith("SUCCESS"));
+    }
+
+    @Test
+    void testReadThroughputUnderContention() throws Exception {
+        int requestsPerRun = 256;
+        for (int clients : new int[]{1, 4, 16, 64}) {
+            ExecutorService pool = Executors.newFixedThreadPool(clients);
+            CountDownLatch latch = new CountDownLatch(requestsPerRun);
+            AtomicInteger errors = new AtomicInteger();
+
+            long start = System.nanoTime();
+            for (int i = 0; i < requestsPerRun; i++) {
+                final int id = i;
+                pool.submit(() -> {
+                    try {
+                        // Every 16th request rewrites another file, which must not stall the readers
+                        boolean write = id % 16 == 0;
+                        String res = write
+                                ? ClientRunner.send("WRITE contended d3JpdGVy")
+                                : ClientRunner.send("READ hot");
+                        if (res == null || !(write ? res.startsWith("SUCCESS") : res.equals("aG90IGZpbGUgY29udGVudHM="))) {
+                            errors.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+
+            boolean finished = latch.await(30, TimeUnit.SECONDS);
+            long elapsed = System.nanoTime() - start;
+            pool.shutdownNow();
+
+            assertTrue(finished, "Contention run with " + clients + " clients did not finish");
+            assertEquals(0, errors.get(), "Requests failed with " + clients + " clients");
+            System.out.printf("READ throughput with %d clients: %.0f req/s%n",
+                    clients, requestsPerRun / (elapsed / 1_000_000_000.0));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@EnabledForJreRange(min = JRE.JAVA_21)
+public class VirtualThreadServerTests {
+
+    static ServerRunner server;
+
+    @BeforeAll
+    static void startServer() throws Exception {
+        server = new ServerRunner("-Dserver.mode=virtual");
+        server.start();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    void testCommandSetIsUnchanged() throws Exception {
+        assertTrue(ClientRunner.send("CREATE virtual").startsWith("SUCCESS"));
+        assertTrue(ClientRunner.send("WRITE virtual " + Base64.getEncoder().encodeToString("unmounted".getBytes())).startsWith("SUCCESS"));
+        assertEquals("unmounted", new String(Base64.getDecoder().decode(ClientRunner.send("READ virtual"))));
+        assertTrue(ClientRunner.send("DELETE virtual").startsWith("SUCCESS"));
+    }
+
+    @Test
+    @Timeout(30)
+    void testThousandsOfIdleConnections() throws Exception {
+        List<Socket> idle = new ArrayList<>();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                idle.add(new Socket("localhost", 12345));
+            }
+            assertNotNull(ClientRunner.send("LIST"));
+        } finally {
+            for (Socket socket : idle) {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VolumeGeometryTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testLargeBlocksAndFilesBeyond32K() throws Exception {
+        String image = dir.resolve("big.dat").toString();
+        // 2 GB of 1 MB blocks: data blocks stay sparse, only metadata is written
+        FileSystemManager fs = new FileSystemManager(image,
+                new FileSystemOptions().totalSize(2L << 30).blockSize(1 << 20).maxFiles(64).format(true));
+        try {
+            byte[] content = new byte[3 * (1 << 20) + 17];
+            new Random(42).nextBytes(content);
+            fs.createFile("big.bin");
+            fs.writeFile("big.bin", content);
+            assertArrayEquals(content, fs.readFile("big.bin"));
+        } finally {
+            fs.close();
+        }
+        assertTrue(Files.size(Path.of(image)) > (2L << 30), "Image should cover the whole data region");
+    }
+
+    @Test
+    void testManySmallBlocks() throws Exception {
+        String image = dir.resolve("many.dat").toString();
+        // 100k blocks needs block pointers wider than a short
+        FileSystemManager fs = new FileSystemManager(image,
+                new FileSystemOptions().totalSize(100_000L * 4096).blockSize(4096).maxFiles(1000).format(true));
+        try {
+            byte[] content = new byte[40_000 * 4096 / 10];
+            new Random(7).nextBytes(content);
+            for (int i = 0; i < 10; i++) {
+                fs.createFile("part" + i);
+                fs.writeFile("part" + i, content);
+            }
+            assertEquals(10, fs.listFiles().length);
+            assertArrayEquals(content, fs.readFile("part9"));
+        } finally {
+            fs.close();
+        }
+    }
+
+    @Test
+    void testRejectsInvalidBlockSize() {
+        String image = dir.resolve("bad.dat").toString();
+        assertThrows(IllegalArgumentException.class, () -> FileSystemManager.format(image, 1 << 20, 1000, 5));
+    }
+}
@@ -0,0 +1,49 @@
+package helpers;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** A raw binary-protocol connection, so tests can see the frames exactly as the server sends them. */
+public class BinaryConnection implements AutoCloseable {
+    public static final byte CREATE = 1, LIST = 2, WRITE = 3, APPEND = 4, READ = 5, DELETE = 6,
+            READ_RANGE = 7, WRITE_AT = 8, QUIT = 9, BATCH = 10, STATS = 11;
+
+    private final Socket socket;
+    public final DataInputStream in;
+    public final OutputStream out;
+
+    public BinaryConnection() throws IOException {
+        socket = new Socket("localhost", 12345);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = socket.getOutputStream();
+        out.write(new byte[]{(byte) 0xFB, 1});
+    }
+
+    /** The bytes of one request: length, opcode, name, then args as written. */
+    public static byte[] frame(byte opcode, String name, byte[] args) {
+        byte[] rawName = name.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(4 + 3 + rawName.length + args.length)
+                .putInt(3 + rawName.length + args.length).put(opcode)
+                .putShort((short) rawName.length).put(rawName).put(args).array();
+    }
+
+    /** Sends one request and returns its response: the status byte followed by the body. */
+    public byte[] call(byte opcode, String name, byte[] args) throws IOException {
+        out.write(frame(opcode, name, args));
+        out.flush();
+        return response();
+    }
+
+    public byte[] response() throws IOException {
+        byte[] response = new byte[in.readInt()];
+        in.readFully(response);
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -1,5 +1,8 @@
 package helpers;
 
+import ca.concordia.client.ClientOptions;
+import ca.concordia.client.PooledClient;
+
 import java.io.*;
 import java.net.*;
 
@@ -12,5 +15,26 @@ public class ClientRunner {
             return in.readLine();
         }
     }
-}
 
+    /** Sends every command in one write, without waiting between them, and returns one line per command. */
+    public static String[] sendAll(String... commands) throws IOException {
+        try (Socket s = new Socket("localhost", 12345);
+             PrintWriter out = new PrintWriter(s.getOutputStream(), false);
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+            for (String command : commands) {
+                out.println(command);
+            }
+            out.flush();
+            String[] replies = new String[commands.length];
+            for (int i = 0; i < replies.length; i++) {
+                replies[i] = in.readLine();
+            }
+            return replies;
+        }
+    }
+
+    /** A client library pool for the test server; the caller closes it. */
+    public static PooledClient pooled(int maxConnections) {
+        return new PooledClient(new ClientOptions().maxConnections(maxConnections).requestTimeoutMillis(5_000));
+    }
+}
@@ -4,13 +4,33 @@ import java.io.*;
 import java.net.*;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ServerRunner {
+    // Every test JVM starts from a fresh volume; restarts within the run must keep its data
+    private static final String IMAGE = "target/server-test.dat";
+    static {
+        new File(IMAGE).delete();
+    }
+
+    private final String[] serverProperties;
     private Process process;
 
+    /** serverProperties are extra -D options for the server JVM, e.g. "-Dserver.mode=nio". */
+    public ServerRunner(String... serverProperties) {
+        this.serverProperties = serverProperties;
+    }
+
     public void start() throws IOException, InterruptedException {
-        process = new ProcessBuilder("java", "-cp", "target/classes", "ca.concordia.Main")
+        List<String> command = new ArrayList<>(List.of("java", "-Dfs.image=" + IMAGE,
+                "-Dfs.maxFiles=64", "-Dfs.totalSize=" + 512 * 128));
+        command.addAll(List.of(serverProperties));
+        command.addAll(List.of("-cp", "target/classes", "ca.concordia.Main"));
+        process = new ProcessBuilder(command)
                 .redirectErrorStream(true)
+                // Nobody drains the pipe, so a chatty server would eventually block on System.out
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
                 .start();
         // Wait for port to become available (server ready)
         Instant start = Instant.now();
@@ -34,6 +54,12 @@ public class ServerRunner {
     public void stop() {
         if (process != null && process.isAlive()) {
             process.destroy();
+            try {
+                // Let the port close before the next test class starts its own server
+                process.waitFor(10, java.util.concurrent.TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 }
@@ -0,0 +1,46 @@
+package ca.concordia.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Runs FileSystemBenchmark and LoopbackBenchmark at 1, 4 and 16 threads with the GC profiler and
+ * writes one JSON file per thread count, so runs on two commits can be compared score by score:
+ * throughput, and gc.alloc.rate.norm for bytes allocated per operation. Extra arguments after the
+ * output directory are benchmark patterns that replace the default two.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar ca.concordia.benchmarks.BenchmarkSuite jmh-results
+ */
+public class BenchmarkSuite {
+
+    private static final int[] THREADS = {1, 4, 16};
+
+    public static void main(String[] args) throws Exception {
+        Path output = Path.of(args.length > 0 ? args[0] : "jmh-results");
+        Files.createDirectories(output);
+        String[] patterns = args.length > 1
+                ? Arrays.copyOfRange(args, 1, args.length)
+                : new String[]{FileSystemBenchmark.class.getSimpleName(), LoopbackBenchmark.class.getSimpleName()};
+
+        for (int threads : THREADS) {
+            OptionsBuilder options = new OptionsBuilder();
+            for (String pattern : patterns) {
+                options.include(pattern);
+            }
+            Options run = options
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(output.resolve("results-t" + threads + ".json").toString())
+                    .build();
+            new Runner(run).run();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package ca.concordia.benchmarks;
+
+import ca.concordia.server.ServerOptions;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How much an idle connection costs in each server mode. Opens connections in steps, makes sure
+ * each one has been served once, and reports the JVM's thread count, heap after GC and resident
+ * memory. The clients live in the same JVM, so compare modes at equal counts rather than reading
+ * the absolute numbers. Not a JMH benchmark: it measures a state, not a rate.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar ca.concordia.benchmarks.ConnectionFootprint NIO 4000
+ */
+public class ConnectionFootprint {
+
+    public static void main(String[] args) throws Exception {
+        ServerOptions.Mode mode = ServerOptions.Mode.valueOf(args.length > 0 ? args[0].toUpperCase() : "NIO");
+        int max = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ServerModeBenchmark.startServer(mode);
+
+        console.println("mode,connections,threads,heapUsedKB,rssKB");
+        List<Socket> clients = new ArrayList<>();
+        for (int step = 0; step <= max; step += Math.max(1, max / 4)) {
+            while (clients.size() < step) {
+                Socket socket = new Socket("localhost", ServerModeBenchmark.PORT);
+                socket.getOutputStream().write("PING\n".getBytes(StandardCharsets.UTF_8));
+                new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+                clients.add(socket);
+            }
+            System.gc();
+            Runtime runtime = Runtime.getRuntime();
+            console.println(mode + "," + clients.size() + "," + ManagementFactory.getThreadMXBean().getThreadCount()
+                    + "," + (runtime.totalMemory() - runtime.freeMemory()) / 1024 + "," + residentKilobytes());
+        }
+        for (Socket socket : clients) {
+            socket.close();
+        }
+        System.exit(0);
+    }
+
+    // Linux only; -1 elsewhere
+    private static long residentKilobytes() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (Exception ignored) {
+        }
+        return -1;
+    }
+}
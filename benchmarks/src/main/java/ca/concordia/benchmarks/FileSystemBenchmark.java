@@ -0,0 +1,95 @@
+package ca.concordia.benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FileSystemManager's public operations across file sizes. Each thread works on its own file, so
+ * -t scales the load without the threads contending for one entry lock; readSharedFile has every
+ * thread read the same file instead. Run with -t 1, 4 and 16 to see how the namespace lock, the
+ * journal and the block cache hold up, and with -prof gc for the bytes allocated per operation.
+ * BenchmarkSuite does all of that in one go.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileSystemBenchmark {
+
+    @Param({"128", "4096", "65536"})
+    public int fileSize;
+
+    private Path dir;
+    private FileSystemManager fs;
+    private byte[] payload;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class ThreadFiles {
+        String name;
+        String scratch; // Created and deleted by createAndDelete, so it never exists between calls
+
+        @Setup(Level.Trial)
+        public void setup(FileSystemBenchmark benchmark) throws Exception {
+            int id = benchmark.threadIds.getAndIncrement();
+            name = "file" + id;
+            scratch = "scratch" + id;
+            benchmark.fs.createFile(name);
+            benchmark.fs.writeFile(name, benchmark.payload);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("fs-bench");
+        fs = new FileSystemManager(dir.resolve("fs.dat").toString(), new FileSystemOptions()
+                .totalSize(8192L * 4096).blockSize(4096).maxFiles(128).format(true));
+        payload = new byte[fileSize];
+        new Random(1).nextBytes(payload);
+        fs.createFile("shared");
+        fs.writeFile("shared", payload);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fs.close();
+        Files.delete(dir.resolve("fs.dat"));
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public byte[] readFile(ThreadFiles files) throws Exception {
+        return fs.readFile(files.name);
+    }
+
+    @Benchmark
+    public byte[] readSharedFile() throws Exception {
+        return fs.readFile("shared");
+    }
+
+    @Benchmark
+    public void writeFile(ThreadFiles files) throws Exception {
+        fs.writeFile(files.name, payload);
+    }
+
+    @Benchmark
+    public void createAndDelete(ThreadFiles files) throws Exception {
+        fs.createFile(files.scratch);
+        fs.deleteFile(files.scratch);
+    }
+
+    @Benchmark
+    public String[] listFiles() {
+        return fs.listFiles();
+    }
+}
@@ -0,0 +1,73 @@
+package ca.concordia.benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import ca.concordia.filesystem.MetadataJournal;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cost of each durability mode on metadata-heavy work: every invocation creates, writes
+ * and deletes a small file. Run with -t 1 and -t 8 to see group commit amortize force().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JournalBenchmark {
+
+    @Param({"NONE", "GROUP_COMMIT", "PER_OP"})
+    public MetadataJournal.Durability durability;
+
+    @Param({"0", "200"})
+    public long commitWindowMicros;
+
+    private Path dir;
+    private FileSystemManager fs;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class FileName {
+        String name;
+
+        @Setup(Level.Trial)
+        public void setup(JournalBenchmark benchmark) {
+            name = "bench" + benchmark.threadIds.getAndIncrement();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("journal-bench");
+        fs = new FileSystemManager(dir.resolve("fs.dat").toString(), new FileSystemOptions()
+                .totalSize(4096L * 4096).blockSize(4096).maxFiles(256)
+                .durability(durability).commitWindowMicros(commitWindowMicros).format(true));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fs.close();
+        Files.delete(dir.resolve("fs.dat"));
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public void createWriteDelete(FileName file) throws Exception {
+        fs.createFile(file.name);
+        fs.writeFile(file.name, file.name.getBytes());
+        fs.deleteFile(file.name);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void createWriteDeleteConcurrent(FileName file) throws Exception {
+        createWriteDelete(file);
+    }
+}
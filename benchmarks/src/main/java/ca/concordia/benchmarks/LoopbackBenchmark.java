@@ -0,0 +1,99 @@
+package ca.concordia.benchmarks;
+
+import ca.concordia.client.BinaryClient;
+import ca.concordia.server.ServerOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End to end over loopback: a FileServer in this JVM, driven through its socket protocols the way
+ * a client would, so parsing, Base64, response building and the round trip are all measured along
+ * with the file system. Every thread keeps one connection and its own file. ServerModeBenchmark
+ * compares the server modes; this compares the protocols and file sizes on the default mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopbackBenchmark {
+
+    public enum Protocol {
+        TEXT, BINARY
+    }
+
+    @Param({"TEXT", "BINARY"})
+    public Protocol protocol;
+
+    @Param({"128", "4096", "65536"})
+    public int fileSize;
+
+    private byte[] payload;
+    private String encoded;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        ServerModeBenchmark.startServer(new ServerOptions().getMode());
+        payload = new byte[fileSize];
+        new Random(1).nextBytes(payload);
+        encoded = Base64.getEncoder().encodeToString(payload);
+    }
+
+    @State(Scope.Thread)
+    public static class Connection {
+        String name;
+        ServerModeBenchmark.Client text;
+        BinaryClient binary;
+
+        @Setup(Level.Trial)
+        public void setup(LoopbackBenchmark benchmark) throws IOException {
+            name = "loop" + benchmark.threadIds.getAndIncrement();
+            if (benchmark.protocol == Protocol.TEXT) {
+                text = new ServerModeBenchmark.Client();
+                text.call("CREATE " + name);
+                text.call("WRITE " + name + " " + benchmark.encoded);
+            } else {
+                binary = new BinaryClient("localhost", ServerModeBenchmark.PORT);
+                binary.create(name);
+                binary.write(name, benchmark.payload);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            if (text != null) {
+                text.close();
+            } else {
+                binary.close();
+            }
+        }
+    }
+
+    @Benchmark
+    public Object write(Connection connection) throws IOException {
+        return connection.text != null
+                ? connection.text.call("WRITE " + connection.name + " " + encoded)
+                : connection.binary.write(connection.name, payload);
+    }
+
+    @Benchmark
+    public Object read(Connection connection) throws IOException {
+        return connection.text != null
+                ? connection.text.call("READ " + connection.name)
+                : connection.binary.read(connection.name);
+    }
+
+    @Benchmark
+    public Object list(Connection connection) throws IOException {
+        return connection.text != null
+                ? connection.text.callList("LIST")
+                : connection.binary.list();
+    }
+}
@@ -0,0 +1,124 @@
+package ca.concordia.benchmarks;
+
+import ca.concordia.filesystem.FileSystemOptions;
+import ca.concordia.server.FileServer;
+import ca.concordia.server.ServerOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second over loopback for each server mode. Every benchmark thread keeps one
+ * connection open and sends a command, then waits for its response line. Run with -t 1 and
+ * -t 32 to compare a lone client with many concurrent ones. VIRTUAL needs a Java 21 JVM.
+ * ConnectionFootprint measures the cost of idle connections instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerModeBenchmark {
+
+    static final int PORT = 12400;
+
+    @Param({"BLOCKING", "NIO", "VIRTUAL"})
+    public ServerOptions.Mode mode;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        startServer(mode);
+
+        try (Client client = new Client()) {
+            client.call("CREATE hot");
+            client.call("WRITE hot " + Base64.getEncoder().encodeToString(new byte[4096]));
+        }
+    }
+
+    /** Starts a server in this JVM on PORT and waits until it accepts connections. */
+    static void startServer(ServerOptions.Mode mode) throws Exception {
+        Path dir = Files.createTempDirectory("server-bench");
+        FileServer server = new FileServer(PORT, dir.resolve("fs.dat").toString(), new FileSystemOptions()
+                .totalSize(4096L * 4096).blockSize(4096).maxFiles(64).format(true),
+                new ServerOptions().mode(mode));
+        Thread thread = new Thread(server::start, "server");
+        thread.setDaemon(true);
+        thread.start();
+        for (int attempt = 0; ; attempt++) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress("localhost", PORT), 200);
+                return;
+            } catch (IOException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client implements AutoCloseable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final OutputStream out;
+
+        public Client() {
+            try {
+                socket = new Socket("localhost", PORT);
+                socket.setTcpNoDelay(true);
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out = socket.getOutputStream();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        String call(String command) throws IOException {
+            out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            return in.readLine();
+        }
+
+        /** Sends a LIST and reads its lines up to the empty line that ends them. */
+        List<String> callList(String command) throws IOException {
+            out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            List<String> lines = new ArrayList<>();
+            for (String line = in.readLine(); line != null && !line.isEmpty(); line = in.readLine()) {
+                lines.add(line);
+            }
+            return lines;
+        }
+
+        @TearDown(Level.Trial)
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public String readHotFile(Client client) throws IOException {
+        return client.call("READ hot");
+    }
+
+    @Benchmark
+    public String unknownCommand(Client client) throws IOException {
+        // No file system work: the cost of framing, dispatch and the round trip alone
+        return client.call("PING");
+    }
+}
@@ -0,0 +1,106 @@
+package ca.concordia.benchmarks;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import ca.concordia.filesystem.StorageBackend;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the mapped and RandomAccessFile backends, both on raw block I/O and
+ * through FileSystemManager's readFile/writeFile paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBackendBenchmark {
+
+    private static final int BLOCK_SIZE = 4096;
+    private static final int BLOCKS = 16 * 1024;
+
+    @Param({"MAPPED", "RANDOM_ACCESS"})
+    public StorageBackend.Kind storage;
+
+    @Param({"4096", "262144"})
+    public int fileSize;
+
+    private Path dir;
+    private FileSystemManager fs;
+    private StorageBackend raw;
+    private byte[] payload;
+    private byte[] block;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("storage-bench");
+        fs = new FileSystemManager(dir.resolve("fs.dat").toString(), new FileSystemOptions()
+                .totalSize((long) BLOCKS * BLOCK_SIZE).blockSize(BLOCK_SIZE).maxFiles(16).storage(storage).format(true));
+        payload = new byte[fileSize];
+        new Random(1).nextBytes(payload);
+        fs.createFile("bench");
+        fs.writeFile("bench", payload);
+
+        String rawImage = dir.resolve("raw.dat").toString();
+        FileSystemManager.format(rawImage, (long) BLOCKS * BLOCK_SIZE, BLOCK_SIZE, 1);
+        raw = StorageBackend.open(rawImage, storage);
+        block = new byte[BLOCK_SIZE];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fs.close();
+        raw.close();
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public byte[] readFile() throws Exception {
+        return fs.readFile("bench");
+    }
+
+    @Benchmark
+    public void writeFile() throws Exception {
+        fs.writeFile("bench", payload);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public byte[] readFileConcurrent() throws Exception {
+        return fs.readFile("bench");
+    }
+
+    @Benchmark
+    public byte[] readBlock() throws IOException {
+        byte[] dst = block;
+        raw.read(randomBlockOffset(), dst, 0, BLOCK_SIZE);
+        return dst;
+    }
+
+    @Benchmark
+    public void writeBlock() throws IOException {
+        raw.write(randomBlockOffset(), block, 0, BLOCK_SIZE);
+    }
+
+    @Benchmark
+    public void writeMetadataField() throws IOException {
+        raw.writeLong(64 + 12, ThreadLocalRandom.current().nextLong());
+    }
+
+    private long randomBlockOffset() {
+        return (long) BLOCK_SIZE * (1 + ThreadLocalRandom.current().nextInt(BLOCKS - 1));
+    }
+}
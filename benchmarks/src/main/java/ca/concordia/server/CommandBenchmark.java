@@ -0,0 +1,99 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.FileSystemOptions;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The text protocol's command path without the network: prebuilt command lines go through
+ * CommandHandler into one reused Response, as on a blocking connection. Run with -prof gc and
+ * read gc.alloc.rate.norm for the bytes each command allocates in parsing, decoding and building
+ * its reply. In the server's package because CommandHandler and Response are package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+
+    @Param({"128", "4096", "65536"})
+    public int fileSize;
+
+    @Param({"true", "false"})
+    public boolean responseCache;
+
+    private Path dir;
+    private FileSystemManager fs;
+    private CommandHandler commands;
+    private final Response response = new Response();
+    private byte[] list;
+    private byte[] read;
+    private byte[] readRange;
+    private byte[] write;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("command-bench");
+        fs = new FileSystemManager(dir.resolve("fs.dat").toString(), new FileSystemOptions()
+                .totalSize(8192L * 4096).blockSize(4096).maxFiles(128).format(true));
+        commands = new CommandHandler(fs, responseCache ? new ResponseCache(8 * 1024 * 1024) : null);
+        byte[] payload = new byte[fileSize];
+        new Random(1).nextBytes(payload);
+        fs.createFile("bench");
+        fs.writeFile("bench", payload);
+        for (int i = 0; i < 16; i++) {
+            fs.createFile("file" + i);
+        }
+        list = ascii("LIST");
+        read = ascii("READ bench");
+        readRange = ascii("READ bench 0 " + fileSize);
+        write = ascii("WRITE bench " + Base64.getEncoder().encodeToString(payload));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fs.close();
+        Files.delete(dir.resolve("fs.dat"));
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public Response list() {
+        return run(list);
+    }
+
+    @Benchmark
+    public Response read() {
+        return run(read);
+    }
+
+    @Benchmark
+    public Response readRange() {
+        return run(readRange);
+    }
+
+    @Benchmark
+    public Response write() {
+        return run(write);
+    }
+
+    private Response run(byte[] line) {
+        response.reset();
+        commands.execute("bench", line, 0, line.length, response);
+        return response;
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}